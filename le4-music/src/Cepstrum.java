@@ -0,0 +1,86 @@
+/**
+ * 振幅スペクトルから低次のケプストラム係数を求めるクラスです．
+ * 振幅スペクトル（片側，長さ bins）を2のべき乗の長さに0埋めしてフーリエ変換し，
+ * その実部の先頭 order 個を係数とする．
+ * 対数を取らずに振幅スペクトルをそのまま変換するため，厳密には（対数振幅の逆変換である）ケプストラムではない．
+ * 従来の母音認識の処理と同じ特徴量であり，保存された母音認識のモデル（{@link VowelModel}）と互換性を保つためにこのままとしている．
+ * 変換のプランと作業用の配列は一度だけ確保されるため，フレームごとに配列を確保しない．
+ * 作業用の配列を持つため，1つのインスタンスを複数のスレッドから同時に使ってはならない．
+ */
+public final class Cepstrum {
+
+  /** 振幅スペクトルの長さ */
+  private final int bins;
+
+  /** 係数の個数 */
+  private final int order;
+
+  private final RealFFT fft;
+  private final double[] src;
+  private final double[] re;
+  private final double[] im;
+
+  /**
+   * ケプストラム分析を作る．
+   *
+   * @param bins 振幅スペクトルの長さ
+   * @param order 求める係数の個数
+   * @throws IllegalArgumentException 係数の個数が変換で得られる個数を超えるとき
+   */
+  public Cepstrum(final int bins, final int order) {
+    final int size = 1 << Le4MusicUtils.nextPow2(bins);
+    this.fft = RealFFT.of(size);
+    if (order <= 0 || order > fft.bins())
+      throw new IllegalArgumentException(
+        "order must be in [1, " + fft.bins() + "]: order = " + order
+      );
+    this.bins = bins;
+    this.order = order;
+    this.src = new double[size];
+    this.re = new double[fft.bins()];
+    this.im = new double[fft.bins()];
+  }
+
+  /**
+   * 係数の個数を返す．
+   *
+   * @return 係数の個数
+   */
+  public final int order() {
+    return order;
+  }
+
+  /**
+   * 振幅スペクトルからケプストラム係数を求める．
+   *
+   * @param spectrum 振幅スペクトル
+   * @param offset 振幅スペクトルの {@code spectrum} 上の開始位置
+   * @param dst 係数の出力先（長さ {@link #order()} 以上）
+   * @return 出力先
+   */
+  public final double[] coefficients(final double[] spectrum, final int offset, final double[] dst) {
+    System.arraycopy(spectrum, offset, src, 0, bins);
+    fft.forward(src, re, im);
+    System.arraycopy(re, 0, dst, 0, order);
+    return dst;
+  }
+
+  /**
+   * スペクトログラムの全フレームのケプストラム係数を求める．
+   * i番目のフレームの係数は配列の {@code i * order()} 番目から並ぶ．
+   *
+   * @param spectrogram 振幅スペクトログラム
+   * @return 行優先で並べたフレームごとの係数（長さ フレーム数 × {@link #order()}）
+   */
+  public final double[] coefficients(final Spectrogram spectrogram) {
+    final int frames = spectrogram.frames();
+    final double[] dst = new double[frames * order];
+    for (int i = 0; i < frames; i++) {
+      System.arraycopy(spectrogram.data(), spectrogram.offset(i), src, 0, bins);
+      fft.forward(src, re, im);
+      System.arraycopy(re, 0, dst, i * order, order);
+    }
+    return dst;
+  }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * 24種類の和音（12音名 × 長調・短調）を状態とする隠れマルコフモデルです．
+ * 出力確率は {@link Chroma#chordScores} による和音らしさ（根音1.0・第3音0.5・第5音0.8の重み付き和）から求め，
+ * 遷移確率は同じ和音に留まる確率と，それ以外の和音へ等確率で移る確率からなる．
+ * 遷移がこの形であることを用い，Viterbi アルゴリズムの各フレームの計算量を状態数に比例する量に抑えている．
+ * ファイル全体を一度に復号する {@link #viterbi} と，一定の遅れで逐次的に復号する {@link Decoder} を持つ．
+ */
+public final class ChordHMM {
+
+  /** 状態数 */
+  public static final int STATES = Chroma.CHORDS;
+
+  /** 同じ和音に留まる確率の既定値 */
+  public static final double defaultStayProbability = 0.9;
+
+  /** 和音らしさを対数出力確率に変換するときの係数の既定値 */
+  public static final double defaultSharpness = 20.0;
+
+  /** 逐次復号の遅れのフレーム数の既定値 */
+  public static final int defaultLag = 20;
+
+  /** 同じ和音に留まる確率の対数 */
+  private final double logStay;
+
+  /** 別の特定の和音へ移る確率の対数 */
+  private final double logMove;
+
+  /** 和音らしさを対数出力確率に変換するときの係数 */
+  private final double sharpness;
+
+  /**
+   * 和音のモデルを作る．
+   *
+   * @param stayProbability 同じ和音に留まる確率（0より大きく1より小さい）
+   * @param sharpness 和音らしさ（最大値で正規化したもの）を対数出力確率に変換するときの係数
+   */
+  public ChordHMM(final double stayProbability, final double sharpness) {
+    if (!(stayProbability > 0.0 && stayProbability < 1.0))
+      throw new IllegalArgumentException("stayProbability must be in (0, 1): " + stayProbability);
+    if (!(sharpness > 0.0))
+      throw new IllegalArgumentException("sharpness must be positive: " + sharpness);
+    this.logStay = Math.log(stayProbability);
+    this.logMove = Math.log((1.0 - stayProbability) / (STATES - 1));
+    this.sharpness = sharpness;
+  }
+
+  /**
+   * 和音らしさから各状態の対数出力確率を求める．
+   * 和音らしさを最大値で割ってから {@code sharpness * (x - 1)} とするため，
+   * 音量によらず最も和音らしい和音が0，それ以外が負の値になる．
+   *
+   * @param scores 和音らしさ（長さ {@link #STATES} 以上）
+   * @param dst 対数出力確率の出力先
+   * @param offset 出力先の書き込み開始位置
+   * @return 出力先
+   */
+  public final double[] emission(final double[] scores, final double[] dst, final int offset) {
+    double max = 0.0;
+    for (int k = 0; k < STATES; k++)
+      max = Math.max(max, scores[k]);
+    final double scale = max > 0.0 ? sharpness / max : 0.0;
+    for (int k = 0; k < STATES; k++)
+      dst[offset + k] = scale * scores[k] - (max > 0.0 ? sharpness : 0.0);
+    return dst;
+  }
+
+  /**
+   * 1フレーム分，各状態に至る最大の対数確率を更新し，そこに至る直前の状態を記録する．
+   *
+   * @param delta 各状態に至る最大の対数確率（更新される）
+   * @param emission 対数出力確率を含む配列
+   * @param offset 対数出力確率の開始位置
+   * @param back 直前の状態の出力先
+   * @param backOffset 出力先の書き込み開始位置
+   */
+  private final void step(final double[] delta, final double[] emission, final int offset,
+                          final byte[] back, final int backOffset) {
+    /* 別の和音から移る場合は，最も確率の高い状態から移るのが最善 */
+    final int best = argmax(delta);
+    final double move = delta[best] + logMove;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int j = 0; j < STATES; j++) {
+      final double stay = delta[j] + logStay;
+      final double d;
+      if (stay >= move) {
+        d = stay;
+        back[backOffset + j] = (byte)j;
+      } else {
+        d = move;
+        back[backOffset + j] = (byte)best;
+      }
+      delta[j] = d + emission[offset + j];
+      if (delta[j] > max)
+        max = delta[j];
+    }
+    /* 桁あふれしないよう最大値を0に揃える */
+    for (int j = 0; j < STATES; j++)
+      delta[j] -= max;
+  }
+
+  private static final int argmax(final double[] a) {
+    int best = 0;
+    for (int j = 1; j < STATES; j++)
+      if (a[j] > a[best])
+        best = j;
+    return best;
+  }
+
+  /**
+   * フレーム列全体について最も確からしい和音の系列を求める．
+   * 初期状態の確率は一様とする．
+   *
+   * @param emissions 対数出力確率（フレーム数 × {@link #STATES}，行優先）
+   * @param frames フレーム数
+   * @return フレームごとの和音の番号
+   */
+  public final int[] viterbi(final double[] emissions, final int frames) {
+    final int[] path = new int[frames];
+    if (frames == 0)
+      return path;
+    final double[] delta = new double[STATES];
+    final byte[] back = new byte[frames * STATES];
+    for (int j = 0; j < STATES; j++)
+      delta[j] = emissions[j];
+    for (int t = 1; t < frames; t++)
+      step(delta, emissions, t * STATES, back, t * STATES);
+    path[frames - 1] = argmax(delta);
+    for (int t = frames - 1; t > 0; t--)
+      path[t - 1] = back[t * STATES + path[t]];
+    return path;
+  }
+
+  /**
+   * 一定のフレーム数だけ遅れて和音を確定させる逐次復号器を作る．
+   *
+   * @param lag 遅れのフレーム数（0以上）
+   * @return 復号器
+   */
+  public final Decoder decoder(final int lag) {
+    return new Decoder(lag);
+  }
+
+  /**
+   * 固定遅延の逐次 Viterbi 復号器です．
+   * 直近 lag+1 フレーム分の直前の状態だけを保持するため，
+   * 使用するメモリと1フレームあたりの計算量は入力の長さによらない．
+   * 確定した和音は，その時点までの観測に基づく最善の系列を lag フレーム遡ったものである．
+   */
+  public final class Decoder {
+
+    private final int lag;
+    private final double[] delta = new double[STATES];
+
+    /** 直前の状態（lag+1 フレーム分のリングバッファ） */
+    private final byte[] back;
+
+    /** これまでに受け取ったフレーム数 */
+    private long frames;
+
+    private Decoder(final int lag) {
+      if (lag < 0)
+        throw new IllegalArgumentException("lag must not be negative: " + lag);
+      this.lag = lag;
+      this.back = new byte[(lag + 1) * STATES];
+    }
+
+    /**
+     * 遅れのフレーム数を返す．
+     *
+     * @return 遅れのフレーム数
+     */
+    public final int lag() {
+      return lag;
+    }
+
+    /**
+     * 1フレーム分の対数出力確率を加え，lag フレーム前の和音を確定させる．
+     *
+     * @param emission 対数出力確率を含む配列
+     * @param offset 対数出力確率の開始位置
+     * @return 確定したフレーム（これまでのフレーム数 - 1 - lag 番目）の和音．まだ確定しなければ -1
+     */
+    public final int push(final double[] emission, final int offset) {
+      if (frames == 0) {
+        for (int j = 0; j < STATES; j++)
+          delta[j] = emission[offset + j];
+      } else {
+        step(delta, emission, offset, back, slot(frames));
+      }
+      frames++;
+      if (frames <= lag)
+        return -1;
+      return backtrack(lag);
+    }
+
+    /** フレーム t の直前の状態を置く位置 */
+    private final int slot(final long t) {
+      return (int)(t % (lag + 1)) * STATES;
+    }
+
+    /** 最新のフレームの最善の状態から steps フレーム遡った状態 */
+    private final int backtrack(final int steps) {
+      int state = argmax(delta);
+      for (long t = frames - 1, end = frames - 1 - steps; t > end; t--)
+        state = back[slot(t) + state];
+      return state;
+    }
+
+    /**
+     * まだ確定していない末尾のフレーム（最大 lag 個）の和音を，古い順に確定させる．
+     * 入力の終わりで呼び出す．
+     *
+     * @param dst 和音の出力先（長さ lag 以上）
+     * @return 書き込んだフレーム数
+     */
+    public final int flush(final int[] dst) {
+      final int n = (int)Math.min(lag, frames);
+      if (n == 0)
+        return 0;
+      int state = argmax(delta);
+      dst[n - 1] = state;
+      for (int i = n - 1; i > 0; i--) {
+        state = back[slot(frames - n + i) + state];
+        dst[i - 1] = state;
+      }
+      return n;
+    }
+
+  }
+
+}
@@ -0,0 +1,85 @@
+import org.apache.commons.math3.util.MathArrays;
+
+/**
+ * 音響信号のフレームを1つずつ受け取り，そのフレームのクロマベクトルと和音を求めるクラスです．
+ * 窓関数・FFTのプラン・{@link Chroma} と作業用の配列は生成時に確保され，
+ * {@link #update} はヒープを確保しないため，短い間隔で呼び出し続けてもよい．
+ * 作業用の配列を持つため，1つのインスタンスを複数のスレッドから同時に使ってはならない．
+ */
+public final class ChordTracker {
+
+  private final double[] window;
+  private final RealFFT rfft;
+  private final Chroma chroma;
+
+  private final double[] wframe;
+  private final double[] re;
+  private final double[] im;
+  private final double[] chromaVector = new double[12];
+  private final double[] scores = new double[Chroma.CHORDS];
+
+  private int chord;
+
+  /**
+   * 和音の追跡器を作る．
+   * FFTのサンプル数はフレーム長と等しい．
+   *
+   * @param sampleRate サンプリング周波数
+   * @param frameSize フレーム長
+   */
+  public ChordTracker(final double sampleRate, final int frameSize) {
+    this.window = MathArrays.normalizeArray(Le4MusicUtils.hanning(frameSize), 1.0);
+    this.rfft = RealFFT.of(frameSize);
+    this.chroma = new Chroma(sampleRate, frameSize);
+    this.wframe = new double[frameSize];
+    this.re = new double[rfft.bins()];
+    this.im = new double[rfft.bins()];
+  }
+
+  /**
+   * フレームを1つ解析する．
+   *
+   * @param frame フレーム（長さはフレーム長以上）
+   * @return 最も和音らしい和音の番号
+   */
+  public final int update(final double[] frame) {
+    for (int i = 0; i < wframe.length; i++)
+      wframe[i] = frame[i] * window[i];
+    rfft.forward(wframe, re, im);
+    RealFFT.abs(re, im, re);
+    chroma.chroma(re, 0, chromaVector);
+    Chroma.chordScores(chromaVector, scores);
+    chord = Le4MusicUtils.argmax(scores);
+    return chord;
+  }
+
+  /**
+   * 直前に解析したフレームの和音を返す．
+   *
+   * @return 和音の番号
+   */
+  public final int chord() {
+    return chord;
+  }
+
+  /**
+   * 直前に解析したフレームのクロマベクトルを返す．
+   * 返される配列は次の {@link #update} で書き換えられる．
+   *
+   * @return クロマベクトル
+   */
+  public final double[] chroma() {
+    return chromaVector;
+  }
+
+  /**
+   * 直前に解析したフレームの各和音の和音らしさを返す．
+   * 返される配列は次の {@link #update} で書き換えられる．
+   *
+   * @return 和音らしさ（長さ {@link Chroma#CHORDS}）
+   */
+  public final double[] scores() {
+    return scores;
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * 振幅スペクトルからクロマベクトル（12音名ごとの平均振幅）と和音らしさを求めるクラスです．
+ * 各周波数ビンに対応する音名と，音名ごとのビン数による正規化の重みは
+ * サンプリング周波数とFFTのサンプル数から生成時に一度だけ求めるため，
+ * フレームごとにはビンを1回走査して加算するだけでよい．
+ * 生成後は変更されないため，複数のスレッドから同時に使ってよい．
+ */
+public final class Chroma {
+
+  /** 和音の数（12音名 × 長調・短調） */
+  public static final int CHORDS = 24;
+
+  /** 和音名（番号 2k が音名 k の長三和音，2k+1 が短三和音） */
+  public static final String[] CHORD_NAMES = {
+    "C Major", "C Minor", "C# Major", "C# Minor", "D Major", "D Minor",
+    "D# Major", "D# Minor", "E Major", "E Minor", "F Major", "F Minor",
+    "F# Major", "F# Minor", "G Major", "G Minor", "G# Major", "G# Minor",
+    "A Major", "A Minor", "A# Major", "A# Minor", "B Major", "B Minor"
+  };
+
+  /** 根音・第3音・第5音の重み */
+  public static final double ROOT_WEIGHT = 1.0;
+  public static final double THIRD_WEIGHT = 0.5;
+  public static final double FIFTH_WEIGHT = 0.8;
+
+  /** 音名を持つ最初のビン（それより低いビンは直流成分か，ノートナンバーが負になる） */
+  private final int first;
+
+  /** ビンごとの音名（0,..11 が C, C#,... に対応する） */
+  private final byte[] pitchClass;
+
+  /** 音名ごとの正規化の重み（その音名に属するビン数の逆数） */
+  private final double[] weight = new double[12];
+
+  /**
+   * クロマベクトルの抽出器を作る．
+   *
+   * @param sampleRate サンプリング周波数
+   * @param fftSize FFTのサンプル数
+   */
+  public Chroma(final double sampleRate, final int fftSize) {
+    final int bins = (fftSize >> 1) + 1;
+    final byte[] pc = new byte[bins];
+    final int[] count = new int[12];
+    int first = bins;
+    for (int j = bins - 1; j > 0; j--) {
+      final int n = (int)Math.round(Le4MusicUtils.hz2nn(j * sampleRate / fftSize));
+      if (n < 0)
+        break;
+      pc[j] = (byte)(n % 12);
+      count[n % 12]++;
+      first = j;
+    }
+    this.first = first;
+    this.pitchClass = pc;
+    for (int k = 0; k < 12; k++)
+      weight[k] = count[k] > 0 ? 1.0 / count[k] : 0.0;
+  }
+
+  /**
+   * 周波数ビンの数を返す．
+   *
+   * @return ビン数
+   */
+  public final int bins() {
+    return pitchClass.length;
+  }
+
+  /**
+   * 1フレームの振幅スペクトルからクロマベクトルを求める．
+   *
+   * @param spectrum 振幅スペクトルを含む配列
+   * @param offset 振幅スペクトルの開始位置
+   * @param dst クロマベクトルの出力先（長さ12以上）
+   * @return 出力先
+   */
+  public final double[] chroma(final double[] spectrum, final int offset, final double[] dst) {
+    for (int k = 0; k < 12; k++)
+      dst[k] = 0.0;
+    for (int j = first; j < pitchClass.length; j++)
+      dst[pitchClass[j]] += Math.abs(spectrum[offset + j]);
+    for (int k = 0; k < 12; k++)
+      dst[k] *= weight[k];
+    return dst;
+  }
+
+  /**
+   * クロマベクトルから各和音の和音らしさ（構成音の重み付き和）を求める．
+   *
+   * @param chroma クロマベクトル
+   * @param dst 和音らしさの出力先（長さ {@link #CHORDS} 以上）
+   * @return 出力先
+   */
+  public static final double[] chordScores(final double[] chroma, final double[] dst) {
+    for (int k = 0; k < 12; k++) {
+      final double root = ROOT_WEIGHT * chroma[k];
+      final double fifth = FIFTH_WEIGHT * chroma[(k + 7) % 12];
+      dst[2 * k] = root + THIRD_WEIGHT * chroma[(k + 4) % 12] + fifth;
+      dst[2 * k + 1] = root + THIRD_WEIGHT * chroma[(k + 3) % 12] + fifth;
+    }
+    return dst;
+  }
+
+  /**
+   * クロマベクトルから最も和音らしい和音を求める．
+   *
+   * @param chroma クロマベクトル
+   * @return 和音の番号（同じ値なら番号の小さい方）
+   */
+  public static final int chord(final double[] chroma) {
+    int best = 0;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int k = 0; k < 12; k++) {
+      final double root = ROOT_WEIGHT * chroma[k];
+      final double fifth = FIFTH_WEIGHT * chroma[(k + 7) % 12];
+      final double major = root + THIRD_WEIGHT * chroma[(k + 4) % 12] + fifth;
+      final double minor = root + THIRD_WEIGHT * chroma[(k + 3) % 12] + fifth;
+      if (major > bestScore) {
+        best = 2 * k;
+        bestScore = major;
+      }
+      if (minor > bestScore) {
+        best = 2 * k + 1;
+        bestScore = minor;
+      }
+    }
+    return best;
+  }
+
+}
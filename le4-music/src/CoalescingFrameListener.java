@@ -0,0 +1,84 @@
+import java.util.concurrent.Executor;
+
+import jp.ac.kyoto_u.kuis.le4music.AudioFrameListener;
+
+/**
+ * 受け取ったフレームを別スレッドで処理する {@link AudioFrameListener} です．
+ * フレームは受け取った時点で内部の配列に複製され，処理用の {@link Executor} には
+ * 未処理のタスクが無いときだけタスクを投入する．
+ * 処理が間に合わない間に届いたフレームは最新のもので上書きされるため，
+ * キューが伸び続けて表示が遅れていくことはなく，常に最新のフレームが処理される．
+ * 複製用の配列は2つだけ確保され，使い回される．
+ */
+public final class CoalescingFrameListener implements AudioFrameListener {
+
+  private final Executor executor;
+  private final AudioFrameListener action;
+
+  /** 最新のフレーム（受け取り側） */
+  private double[] pending;
+
+  /** 処理中のフレーム（処理側） */
+  private double[] current;
+
+  private int pendingPosition;
+
+  /** タスクが投入済みで，まだ最新のフレームを取り出していなければ true */
+  private boolean scheduled;
+
+  /** 処理されずに上書きされたフレームの数 */
+  private long dropped;
+
+  /**
+   * フレームを別スレッドで処理するリスナを作る．
+   *
+   * @param frameSize フレーム長
+   * @param executor 処理を行う Executor（単一スレッドであること）
+   * @param action 各フレームに対する処理（処理用のスレッドで呼ばれる）
+   */
+  public CoalescingFrameListener(final int frameSize, final Executor executor,
+                                 final AudioFrameListener action) {
+    this.executor = executor;
+    this.action = action;
+    this.pending = new double[frameSize];
+    this.current = new double[frameSize];
+  }
+
+  @Override
+  public final void frameUpdate(final double[] frame, final int position) {
+    final boolean submit;
+    synchronized (this) {
+      System.arraycopy(frame, 0, pending, 0, Math.min(frame.length, pending.length));
+      pendingPosition = position;
+      if (scheduled)
+        dropped++;
+      submit = !scheduled;
+      scheduled = true;
+    }
+    if (submit)
+      executor.execute(this::drain);
+  }
+
+  private final void drain() {
+    final double[] frame;
+    final int position;
+    synchronized (this) {
+      frame = pending;
+      pending = current;
+      current = frame;
+      position = pendingPosition;
+      scheduled = false;
+    }
+    action.frameUpdate(frame, position);
+  }
+
+  /**
+   * 処理されずに上書きされたフレームの数を返す．
+   *
+   * @return フレーム数
+   */
+  public final synchronized long dropped() {
+    return dropped;
+  }
+
+}
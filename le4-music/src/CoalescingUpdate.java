@@ -0,0 +1,39 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+
+/**
+ * 他のスレッドからJavaFXのスレッドへの表示の更新要求をまとめるクラスです．
+ * {@link #request} は，前回の要求による更新がまだ実行されていなければ何もしないため，
+ * 解析スレッドがどれだけ頻繁に要求しても {@link Platform#runLater} のキューには高々1つしか積まれない．
+ * 更新処理は実行時点で最新の値を読んで表示すればよい．
+ */
+public final class CoalescingUpdate {
+
+  private final Runnable update;
+  private final AtomicBoolean pending = new AtomicBoolean();
+
+  /**
+   * 表示の更新要求をまとめるオブジェクトを作る．
+   *
+   * @param update 表示の更新処理（JavaFXのスレッドで呼ばれる）
+   */
+  public CoalescingUpdate(final Runnable update) {
+    this.update = update;
+  }
+
+  /**
+   * 表示の更新を要求する．どのスレッドから呼んでもよい．
+   */
+  public final void request() {
+    if (!pending.getAndSet(true))
+      Platform.runLater(this::run);
+  }
+
+  private final void run() {
+    /* 更新中に届いた要求は次の更新で反映されるよう，先に解除する */
+    pending.set(false);
+    update.run();
+  }
+
+}
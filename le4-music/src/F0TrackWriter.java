@@ -0,0 +1,223 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 時刻と基本周波数の組をファイルに追記するクラスです．
+ * {@link #append} は値を内部の配列に置くだけで入出力を行わないため，
+ * オーディオやJavaFXのスレッドから呼んでも処理を止めない．
+ * 溜まった値は専用のスレッドが一定間隔でまとめてファイルに書き出す．
+ * ファイルは生成時に追記モードで一度だけ開かれ，{@link #close} まで開いたままになる．
+ * 使用するメモリは記録の長さによらず一定である．
+ *
+ * <p>出力形式は次の2つ．
+ * <ul>
+ * <li>{@link Format#CSV}: 1行に1組，「時刻 [seconds],基本周波数 [Hz]」</li>
+ * <li>{@link Format#BINARY}: ファイルが空のときだけ先頭にマジックナンバーとバージョン（各 int）を書き，
+ *     以降1組につき時刻（double）と基本周波数（float）の12バイトを並べる．ビッグエンディアン</li>
+ * </ul>
+ */
+public final class F0TrackWriter implements Closeable {
+
+  /** 出力形式 */
+  public enum Format { CSV, BINARY }
+
+  /** バイナリ形式のマジックナンバー（"F0TR"） */
+  public static final int MAGIC = 0x46305452;
+
+  /** バイナリ形式のバージョン */
+  public static final int VERSION = 1;
+
+  /** 1回の書き出しで扱える組の数の既定値 */
+  public static final int defaultCapacity = 4096;
+
+  /** 書き出しの間隔の既定値 (ms) */
+  public static final long defaultFlushInterval = 500;
+
+  /** バイナリ形式の1組のバイト数 */
+  private static final int RECORD_BYTES = Double.BYTES + Float.BYTES;
+
+  private final Format format;
+  private final FileChannel channel;
+  private final ScheduledExecutorService flusher;
+
+  /** 書き出し待ちの組（受け取り側，時刻と基本周波数を交互に並べる） */
+  private double[] pending;
+
+  /** 書き出し中の組（書き出し側） */
+  private double[] current;
+
+  private int count;
+
+  /** 書き出しが間に合わず捨てた組の数 */
+  private long dropped;
+
+  /** 書き出し用の配列（書き出し側のスレッドでのみ使う） */
+  private final ByteBuffer buffer;
+  private final StringBuilder line = new StringBuilder();
+
+  /** 書き出し中に発生した例外 */
+  private volatile IOException failure;
+
+  private boolean closed;
+
+  /**
+   * 既定の容量と間隔でファイルを開く．
+   *
+   * @param file 出力先のファイル
+   * @param format 出力形式
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public F0TrackWriter(final File file, final Format format) throws IOException {
+    this(file, format, defaultCapacity, defaultFlushInterval);
+  }
+
+  /**
+   * ファイルを追記モードで開き，書き出し用のスレッドを開始する．
+   *
+   * @param file 出力先のファイル
+   * @param format 出力形式
+   * @param capacity 1回の書き出しで扱える組の数（これを超えた分は捨てられる）
+   * @param flushInterval 書き出しの間隔 (ms)
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public F0TrackWriter(final File file, final Format format, final int capacity, final long flushInterval)
+    throws IOException {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    if (flushInterval <= 0)
+      throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+    this.format = format;
+    this.pending = new double[2 * capacity];
+    this.current = new double[2 * capacity];
+    this.buffer = ByteBuffer.allocate(Math.max(capacity * RECORD_BYTES, 8192));
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (format == Format.BINARY && channel.size() == 0) {
+      buffer.putInt(MAGIC).putInt(VERSION).flip();
+      writeFully();
+    }
+    this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "F0TrackWriter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 時刻と基本周波数の組を書き出し待ちに加える．入出力もヒープの確保も行わない．
+   * 書き出し待ちが容量に達しているときは捨てる．
+   *
+   * @param time 時刻 [seconds]
+   * @param f0 基本周波数 [Hz]
+   */
+  public final synchronized void append(final double time, final double f0) {
+    if (closed)
+      return;
+    if (2 * count == pending.length) {
+      dropped++;
+      return;
+    }
+    pending[2 * count] = time;
+    pending[2 * count + 1] = f0;
+    count++;
+  }
+
+  /**
+   * 書き出しが間に合わず捨てた組の数を返す．
+   *
+   * @return 組の数
+   */
+  public final synchronized long dropped() {
+    return dropped;
+  }
+
+  /** 書き出し待ちの組をファイルに書き出す（書き出し用のスレッドで呼ばれる） */
+  private final void flush() throws IOException {
+    final double[] values;
+    final int n;
+    synchronized (this) {
+      values = pending;
+      pending = current;
+      current = values;
+      n = count;
+      count = 0;
+    }
+    if (n == 0)
+      return;
+    switch (format) {
+    case CSV:
+      for (int i = 0; i < n; i++) {
+        line.setLength(0);
+        line.append(values[2 * i]).append(',').append(values[2 * i + 1]).append('\n');
+        if (buffer.remaining() < line.length()) {
+          buffer.flip();
+          writeFully();
+        }
+        for (int k = 0; k < line.length(); k++)
+          buffer.put((byte)line.charAt(k));
+      }
+      break;
+    case BINARY:
+      for (int i = 0; i < n; i++)
+        buffer.putDouble(values[2 * i]).putFloat((float)values[2 * i + 1]);
+      break;
+    }
+    buffer.flip();
+    writeFully();
+  }
+
+  private final void flushQuietly() {
+    if (failure != null)
+      return;
+    try {
+      flush();
+    } catch (final IOException e) {
+      /* 以降の書き出しは行わず，close で報告する */
+      failure = e;
+    }
+  }
+
+  /** buffer の内容をすべて書き出して空にする */
+  private final void writeFully() throws IOException {
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * 書き出し用のスレッドを止め，残りの組を書き出してファイルを閉じる．
+   *
+   * @throws IOException 入出力例外が発生した場合，または書き出し中に例外が発生していた場合
+   */
+  @Override
+  public final void close() throws IOException {
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+    }
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      if (failure != null)
+        throw failure;
+      flush();
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+  }
+
+}
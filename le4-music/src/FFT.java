@@ -0,0 +1,454 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 複素配列に対する高速フーリエ変換を行うクラスです．
+ * 複素数は {@code double[]} に実部・虚部の順で交互に格納する
+ * （interleaved 形式：{@code a[2k]} が実部，{@code a[2k+1]} が虚部）．
+ * 変換長は任意の正の整数でよい．
+ * 変換長が2のべき乗のときは radix-2，
+ * 2, 3, 5 のみを素因数にもつときは radix-2/3/4/5 の混合基数，
+ * それ以外のときは Bluestein のアルゴリズムで変換する．
+ * 回転因子などの表は変換長ごとに一度だけ計算され，
+ * {@link #of(int)} が返すインスタンス（プラン）としてキャッシュされる．
+ * 作業用の配列はスレッドごとに一度だけ確保されるため，
+ * インスタンスは複数のスレッドから同時に使ってよい．
+ */
+public final class FFT {
+
+  /** 変換長をキーとするプランのキャッシュ */
+  private static final ConcurrentMap<Integer, FFT> plans = new ConcurrentHashMap<>();
+
+  /** 変換長（複素数の個数） */
+  private final int size;
+
+  /** 回転因子 cos(2πk/size), k = 0, ..., size-1（radix-2 では size/2-1 まで） */
+  private final double[] cos;
+
+  /** 回転因子 sin(2πk/size), k = 0, ..., size-1（radix-2 では size/2-1 まで） */
+  private final double[] sin;
+
+  /** ビット反転した添字（radix-2 のときのみ） */
+  private final int[] bitrev;
+
+  /** 変換長の因数分解（混合基数のときのみ） */
+  private final int[] factors;
+
+  /** チャープ信号 exp(-iπk²/size) の実部（Bluestein のときのみ） */
+  private final double[] chirpRe;
+
+  /** チャープ信号 exp(-iπk²/size) の虚部（Bluestein のときのみ） */
+  private final double[] chirpIm;
+
+  /** 順変換用の畳み込みフィルタのフーリエ変換（Bluestein のときのみ） */
+  private final double[] filterForward;
+
+  /** 逆変換用の畳み込みフィルタのフーリエ変換（Bluestein のときのみ） */
+  private final double[] filterInverse;
+
+  /** 畳み込みに用いる2のべき乗長のFFT（Bluestein のときのみ） */
+  private final FFT conv;
+
+  /** 作業用配列（混合基数と Bluestein のときのみ，スレッドごと） */
+  private final ThreadLocal<double[]> work;
+
+  /**
+   * 与えられた長さの変換のプランを返す．
+   * 同じ長さに対しては常に同じインスタンスを返す．
+   *
+   * @param size 変換長（複素数の個数）
+   * @return 変換のプラン
+   * @throws IllegalArgumentException 変換長が正でないとき
+   */
+  public static final FFT of(final int size) {
+    final FFT plan = plans.get(size);
+    if (plan != null)
+      return plan;
+    /* 生成中に他の長さのプランを参照することがあるので computeIfAbsent は使わない */
+    final FFT created = new FFT(size);
+    final FFT existing = plans.putIfAbsent(size, created);
+    return existing != null ? existing : created;
+  }
+
+  private FFT(final int size) {
+    if (size <= 0)
+      throw new IllegalArgumentException("size must be positive: " + size);
+    this.size = size;
+
+    if (Integer.bitCount(size) == 1) {
+      /* radix-2 */
+      final int half = size >> 1;
+      cos = new double[half];
+      sin = new double[half];
+      for (int k = 0; k < half; k++) {
+        final double theta = 2.0 * Math.PI * k / size;
+        cos[k] = Math.cos(theta);
+        sin[k] = Math.sin(theta);
+      }
+      bitrev = new int[size];
+      final int bits = Integer.numberOfTrailingZeros(size);
+      for (int i = 0; i < size; i++)
+        bitrev[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (Integer.SIZE - bits);
+      factors = null;
+      chirpRe = chirpIm = filterForward = filterInverse = null;
+      conv = null;
+      work = null;
+    } else if ((factors = factorize(size)) != null) {
+      /* 混合基数 */
+      cos = new double[size];
+      sin = new double[size];
+      for (int k = 0; k < size; k++) {
+        final double theta = 2.0 * Math.PI * k / size;
+        cos[k] = Math.cos(theta);
+        sin[k] = Math.sin(theta);
+      }
+      bitrev = null;
+      chirpRe = chirpIm = filterForward = filterInverse = null;
+      conv = null;
+      work = ThreadLocal.withInitial(() -> new double[size << 1]);
+    } else {
+      /* Bluestein: 長さ 2*size-1 以上の2のべき乗長の巡回畳み込みに帰着させる */
+      cos = sin = null;
+      bitrev = null;
+      chirpRe = new double[size];
+      chirpIm = new double[size];
+      for (int k = 0; k < size; k++) {
+        /* k² は 2*size を法として計算し，大きな k での精度低下を防ぐ */
+        final long k2 = (long)k * k % (2L * size);
+        final double theta = Math.PI * k2 / size;
+        chirpRe[k] = Math.cos(theta);
+        chirpIm[k] = -Math.sin(theta);
+      }
+      final int convSize = Integer.highestOneBit((size << 1) - 1) << 1;
+      conv = FFT.of(convSize);
+      filterForward = new double[convSize << 1];
+      filterInverse = new double[convSize << 1];
+      for (int k = 0; k < size; k++) {
+        /* 順変換のフィルタはチャープの複素共役，逆変換のフィルタはチャープそのもの */
+        filterForward[2 * k] = chirpRe[k];
+        filterForward[2 * k + 1] = -chirpIm[k];
+        filterInverse[2 * k] = chirpRe[k];
+        filterInverse[2 * k + 1] = chirpIm[k];
+        if (k > 0) {
+          final int j = convSize - k;
+          filterForward[2 * j] = chirpRe[k];
+          filterForward[2 * j + 1] = -chirpIm[k];
+          filterInverse[2 * j] = chirpRe[k];
+          filterInverse[2 * j + 1] = chirpIm[k];
+        }
+      }
+      conv.forward(filterForward);
+      conv.forward(filterInverse);
+      work = ThreadLocal.withInitial(() -> new double[convSize << 1]);
+    }
+  }
+
+  /**
+   * 変換長を 4, 2, 3, 5 の積に分解する．
+   *
+   * @param n 変換長
+   * @return 因数の配列．他の素因数を含むときは {@code null}
+   */
+  private static final int[] factorize(int n) {
+    final int[] buf = new int[Integer.SIZE];
+    int count = 0;
+    for (final int p : new int[] { 4, 2, 3, 5 }) {
+      while (n % p == 0) {
+        buf[count++] = p;
+        n /= p;
+      }
+    }
+    if (n != 1)
+      return null;
+    final int[] factors = new int[count];
+    System.arraycopy(buf, 0, factors, 0, count);
+    return factors;
+  }
+
+  /**
+   * 変換長を返す．
+   *
+   * @return 変換長（複素数の個数）
+   */
+  public final int size() {
+    return size;
+  }
+
+  /**
+   * interleaved 形式の複素配列をその場でフーリエ変換する．
+   * 正規化は行わない（{@code DftNormalization.STANDARD} の順変換と同じ）．
+   *
+   * @param a 長さ {@code 2 * size()} 以上の複素配列
+   */
+  public final void forward(final double[] a) {
+    transform(a, -1.0);
+  }
+
+  /**
+   * interleaved 形式の複素配列をその場で逆フーリエ変換する．
+   * 結果は変換長で割って正規化される
+   * （{@code DftNormalization.STANDARD} の逆変換と同じ）．
+   *
+   * @param a 長さ {@code 2 * size()} 以上の複素配列
+   */
+  public final void inverse(final double[] a) {
+    transform(a, +1.0);
+    final double scale = 1.0 / size;
+    for (int i = 0; i < 2 * size; i++)
+      a[i] *= scale;
+  }
+
+  /**
+   * 正規化なしの変換本体．
+   *
+   * @param a interleaved 形式の複素配列
+   * @param sign 回転因子の指数の符号（順変換は -1，逆変換は +1）
+   */
+  private void transform(final double[] a, final double sign) {
+    if (a.length < 2 * size)
+      throw new IllegalArgumentException(
+        "a.length must be at least 2 * size: " +
+        "a.length = " + a.length + ", size = " + size
+      );
+    if (bitrev != null)
+      radix2(a, sign);
+    else if (factors != null)
+      mixedRadix(a, sign);
+    else
+      bluestein(a, sign);
+  }
+
+  /** radix-2 の変換（その場） */
+  private void radix2(final double[] a, final double sign) {
+    /* ビット反転順に並べ替え */
+    for (int i = 0; i < size; i++) {
+      final int j = bitrev[i];
+      if (i < j) {
+        final double re = a[2 * i];
+        final double im = a[2 * i + 1];
+        a[2 * i] = a[2 * j];
+        a[2 * i + 1] = a[2 * j + 1];
+        a[2 * j] = re;
+        a[2 * j + 1] = im;
+      }
+    }
+
+    /* バタフライ演算 */
+    for (int len = 2; len <= size; len <<= 1) {
+      final int half = len >> 1;
+      final int step = size / len;
+      for (int i = 0; i < size; i += len) {
+        for (int j = 0; j < half; j++) {
+          final double wr = cos[j * step];
+          final double wi = sign * sin[j * step];
+          final int p = 2 * (i + j);
+          final int q = 2 * (i + j + half);
+          final double tr = a[q] * wr - a[q + 1] * wi;
+          final double ti = a[q] * wi + a[q + 1] * wr;
+          a[q] = a[p] - tr;
+          a[q + 1] = a[p + 1] - ti;
+          a[p] += tr;
+          a[p + 1] += ti;
+        }
+      }
+    }
+  }
+
+  /** 混合基数の変換（作業用配列に写してから a へ書き戻す） */
+  private void mixedRadix(final double[] a, final double sign) {
+    final double[] x = work.get();
+    System.arraycopy(a, 0, x, 0, 2 * size);
+    decimate(x, 0, 1, a, 0, size, 0, sign);
+  }
+
+  /**
+   * 時間間引きによる混合基数変換の再帰本体．
+   * {@code in} の {@code inOff} から {@code stride} 間隔で並ぶ n 点を変換し，
+   * {@code out} の {@code outOff} から連続して書き込む．
+   */
+  private void decimate(
+    final double[] in, final int inOff, final int stride,
+    final double[] out, final int outOff,
+    final int n, final int depth, final double sign
+  ) {
+    if (n == 1) {
+      out[2 * outOff] = in[2 * inOff];
+      out[2 * outOff + 1] = in[2 * inOff + 1];
+      return;
+    }
+    final int p = factors[depth];
+    final int m = n / p;
+    for (int r = 0; r < p; r++)
+      decimate(in, inOff + r * stride, stride * p, out, outOff + r * m, m, depth + 1, sign);
+
+    /* 回転因子を掛けて p 点のDFTで合成する */
+    final int tw = size / n;
+    switch (p) {
+    case 2: butterfly2(out, outOff, m, tw, sign); break;
+    case 3: butterfly3(out, outOff, m, tw, sign); break;
+    case 4: butterfly4(out, outOff, m, tw, sign); break;
+    default: butterfly5(out, outOff, m, tw, sign); break;
+    }
+  }
+
+  private void butterfly2(final double[] a, final int off, final int m, final int tw, final double sign) {
+    for (int k = 0; k < m; k++) {
+      final int i0 = 2 * (off + k);
+      final int i1 = 2 * (off + k + m);
+      final double wr = cos[k * tw];
+      final double wi = sign * sin[k * tw];
+      final double tr = a[i1] * wr - a[i1 + 1] * wi;
+      final double ti = a[i1] * wi + a[i1 + 1] * wr;
+      a[i1] = a[i0] - tr;
+      a[i1 + 1] = a[i0 + 1] - ti;
+      a[i0] += tr;
+      a[i0 + 1] += ti;
+    }
+  }
+
+  private static final double SIN_2PI_3 = Math.sqrt(3.0) * 0.5;
+
+  private void butterfly3(final double[] a, final int off, final int m, final int tw, final double sign) {
+    final double s = sign * SIN_2PI_3;
+    for (int k = 0; k < m; k++) {
+      final int i0 = 2 * (off + k);
+      final int i1 = 2 * (off + k + m);
+      final int i2 = 2 * (off + k + 2 * m);
+      final double w1r = cos[k * tw], w1i = sign * sin[k * tw];
+      final double w2r = cos[2 * k * tw], w2i = sign * sin[2 * k * tw];
+      final double t1r = a[i1] * w1r - a[i1 + 1] * w1i;
+      final double t1i = a[i1] * w1i + a[i1 + 1] * w1r;
+      final double t2r = a[i2] * w2r - a[i2 + 1] * w2i;
+      final double t2i = a[i2] * w2i + a[i2 + 1] * w2r;
+      final double sr = t1r + t2r, si = t1i + t2i;
+      final double dr = t1r - t2r, di = t1i - t2i;
+      final double mr = a[i0] - 0.5 * sr;
+      final double mi = a[i0 + 1] - 0.5 * si;
+      a[i0] += sr;
+      a[i0 + 1] += si;
+      a[i1] = mr - s * di;
+      a[i1 + 1] = mi + s * dr;
+      a[i2] = mr + s * di;
+      a[i2 + 1] = mi - s * dr;
+    }
+  }
+
+  private void butterfly4(final double[] a, final int off, final int m, final int tw, final double sign) {
+    for (int k = 0; k < m; k++) {
+      final int i0 = 2 * (off + k);
+      final int i1 = 2 * (off + k + m);
+      final int i2 = 2 * (off + k + 2 * m);
+      final int i3 = 2 * (off + k + 3 * m);
+      final double w1r = cos[k * tw], w1i = sign * sin[k * tw];
+      final double w2r = cos[2 * k * tw], w2i = sign * sin[2 * k * tw];
+      final double w3r = cos[3 * k * tw], w3i = sign * sin[3 * k * tw];
+      final double t1r = a[i1] * w1r - a[i1 + 1] * w1i;
+      final double t1i = a[i1] * w1i + a[i1 + 1] * w1r;
+      final double t2r = a[i2] * w2r - a[i2 + 1] * w2i;
+      final double t2i = a[i2] * w2i + a[i2 + 1] * w2r;
+      final double t3r = a[i3] * w3r - a[i3 + 1] * w3i;
+      final double t3i = a[i3] * w3i + a[i3 + 1] * w3r;
+      final double s0r = a[i0] + t2r, s0i = a[i0 + 1] + t2i;
+      final double d0r = a[i0] - t2r, d0i = a[i0 + 1] - t2i;
+      final double s1r = t1r + t3r, s1i = t1i + t3i;
+      final double d1r = t1r - t3r, d1i = t1i - t3i;
+      /* sign * i * (t1 - t3) */
+      final double jr = -sign * d1i, ji = sign * d1r;
+      a[i0] = s0r + s1r;
+      a[i0 + 1] = s0i + s1i;
+      a[i1] = d0r + jr;
+      a[i1 + 1] = d0i + ji;
+      a[i2] = s0r - s1r;
+      a[i2 + 1] = s0i - s1i;
+      a[i3] = d0r - jr;
+      a[i3 + 1] = d0i - ji;
+    }
+  }
+
+  private static final double COS_2PI_5 = Math.cos(2.0 * Math.PI / 5.0);
+  private static final double COS_4PI_5 = Math.cos(4.0 * Math.PI / 5.0);
+  private static final double SIN_2PI_5 = Math.sin(2.0 * Math.PI / 5.0);
+  private static final double SIN_4PI_5 = Math.sin(4.0 * Math.PI / 5.0);
+
+  private void butterfly5(final double[] a, final int off, final int m, final int tw, final double sign) {
+    final double s1 = sign * SIN_2PI_5;
+    final double s2 = sign * SIN_4PI_5;
+    for (int k = 0; k < m; k++) {
+      final int i0 = 2 * (off + k);
+      final int i1 = 2 * (off + k + m);
+      final int i2 = 2 * (off + k + 2 * m);
+      final int i3 = 2 * (off + k + 3 * m);
+      final int i4 = 2 * (off + k + 4 * m);
+      final double w1r = cos[k * tw], w1i = sign * sin[k * tw];
+      final double w2r = cos[2 * k * tw], w2i = sign * sin[2 * k * tw];
+      final double w3r = cos[3 * k * tw], w3i = sign * sin[3 * k * tw];
+      final double w4r = cos[4 * k * tw], w4i = sign * sin[4 * k * tw];
+      final double t1r = a[i1] * w1r - a[i1 + 1] * w1i;
+      final double t1i = a[i1] * w1i + a[i1 + 1] * w1r;
+      final double t2r = a[i2] * w2r - a[i2 + 1] * w2i;
+      final double t2i = a[i2] * w2i + a[i2 + 1] * w2r;
+      final double t3r = a[i3] * w3r - a[i3 + 1] * w3i;
+      final double t3i = a[i3] * w3i + a[i3 + 1] * w3r;
+      final double t4r = a[i4] * w4r - a[i4 + 1] * w4i;
+      final double t4i = a[i4] * w4i + a[i4 + 1] * w4r;
+      final double ar = t1r + t4r, ai = t1i + t4i;
+      final double br = t2r + t3r, bi = t2i + t3i;
+      final double cr = t1r - t4r, ci = t1i - t4i;
+      final double dr = t2r - t3r, di = t2i - t3i;
+      final double y0r = a[i0], y0i = a[i0 + 1];
+      final double m1r = y0r + COS_2PI_5 * ar + COS_4PI_5 * br;
+      final double m1i = y0i + COS_2PI_5 * ai + COS_4PI_5 * bi;
+      final double m2r = y0r + COS_4PI_5 * ar + COS_2PI_5 * br;
+      final double m2i = y0i + COS_4PI_5 * ai + COS_2PI_5 * bi;
+      /* i * (s1 * c + s2 * d) と i * (s2 * c - s1 * d) */
+      final double n1r = -(s1 * ci + s2 * di), n1i = s1 * cr + s2 * dr;
+      final double n2r = -(s2 * ci - s1 * di), n2i = s2 * cr - s1 * dr;
+      a[i0] = y0r + ar + br;
+      a[i0 + 1] = y0i + ai + bi;
+      a[i1] = m1r + n1r;
+      a[i1 + 1] = m1i + n1i;
+      a[i4] = m1r - n1r;
+      a[i4 + 1] = m1i - n1i;
+      a[i2] = m2r + n2r;
+      a[i2 + 1] = m2i + n2i;
+      a[i3] = m2r - n2r;
+      a[i3 + 1] = m2i - n2i;
+    }
+  }
+
+  /** Bluestein のアルゴリズムによる変換 */
+  private void bluestein(final double[] a, final double sign) {
+    final double[] x = work.get();
+    final int convSize = conv.size();
+    final double[] filter = sign < 0.0 ? filterForward : filterInverse;
+
+    /* 入力にチャープを掛けて0詰めする（逆変換ではチャープの複素共役） */
+    for (int k = 0; k < size; k++) {
+      final double cr = chirpRe[k];
+      final double wi = sign < 0.0 ? chirpIm[k] : -chirpIm[k];
+      x[2 * k] = a[2 * k] * cr - a[2 * k + 1] * wi;
+      x[2 * k + 1] = a[2 * k] * wi + a[2 * k + 1] * cr;
+    }
+    Arrays.fill(x, 2 * size, 2 * convSize, 0.0);
+
+    /* フィルタとの巡回畳み込み */
+    conv.forward(x);
+    for (int k = 0; k < convSize; k++) {
+      final double xr = x[2 * k], xi = x[2 * k + 1];
+      final double fr = filter[2 * k], fi = filter[2 * k + 1];
+      x[2 * k] = xr * fr - xi * fi;
+      x[2 * k + 1] = xr * fi + xi * fr;
+    }
+    conv.inverse(x);
+
+    /* もう一度チャープを掛ける */
+    for (int k = 0; k < size; k++) {
+      final double cr = chirpRe[k];
+      final double wi = sign < 0.0 ? chirpIm[k] : -chirpIm[k];
+      a[2 * k] = x[2 * k] * cr - x[2 * k + 1] * wi;
+      a[2 * k + 1] = x[2 * k] * wi + x[2 * k + 1] * cr;
+    }
+  }
+
+}
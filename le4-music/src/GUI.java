@@ -3,7 +3,6 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -33,7 +32,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -68,6 +66,8 @@ public final class GUI extends Application {
                 "Upper bound of amplitude [dB] (Default: " + Le4MusicUtils.spectrumAmplitudeUpperBound + ")");
         options.addOption(null, "freq-lo", true, "Lower bound of frequency [Hz] (Default: 0.0)");
         options.addOption(null, "freq-up", true, "Upper bound of frequency [Hz] (Default: Nyquist)");
+        options.addOption("M", "model", true, "Vowel model file written by TrainVowelModelCLI --pad. "
+                + "With the five training WAVFILEs it is retrained only when they have changed");
     }
 
     @Override
@@ -88,89 +88,45 @@ public final class GUI extends Application {
             Platform.exit();
             return;
         }
-        final File[] wavFile = new File[5];
-        wavFile[0] = new File(pargs[0]);
-        wavFile[1] = new File(pargs[1]);
-        wavFile[2] = new File(pargs[2]);
-        wavFile[3] = new File(pargs[3]);
-        wavFile[4] = new File(pargs[4]);
-
-        double[][] average = new double[5][13];// 最尤推定した結果の平均
-        double[][] s_power = new double[5][13];// 最尤推定した結果の分散
-
-        for (int v = 0; v < 5; v++) {
-            final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile[v]);
-            final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-            final AudioFormat format = stream.getFormat();
-            final double sampleRate = format.getSampleRate();
-            final double nyquist = sampleRate * 0.5;
-            stream.close();
-
-            /*
-             * fftSize = 2ˆp >= frameSize を満たすfftSize を求める 2ˆp はシフト演算で求める
-             */
-            /* 窓関数とFFTのサンプル数 */
-            final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                    .orElse(Le4MusicUtils.frameDuration);
-            final int frameSize = (int) Math.round(frameDuration * sampleRate);
-            final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
-            final int fftSize2 = (fftSize >> 1) + 1;
-            /*
-             * 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める． 振幅を信号長で正規化する．
-             */
-            /* シフトのサンプル数 */
-            final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                    .orElse(Le4MusicUtils.frameDuration / 8);
-            final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-            /* 窓関数を求め， それを正規化する */
-            final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
-                    1.0);
-            /* 短時間フーリエ変換本体 */
-            final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                    .map(frame -> Le4MusicUtils.rfft(frame));
-
-            /* 複素スペクトログラムを振幅スペクトログラムに */
-            double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                    .toArray(n -> new double[n][]);
-
-            /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-            final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-
-            /* 参考： 各フーリエ変換係数に対応する周波数 */
-            final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize).toArray();
-
-            Complex[][] cepstrum = new Complex[times.length][];
-            final double[][] ceps = new double[times.length][];
-            for (int i = 0; i < times.length; i++) {
-                int fftSize_c = 1 << Le4MusicUtils.nextPow2(specLog[i].length);
-                int fftSize2_c = (fftSize_c >> 1) + 1;
-                double[] src = Arrays.stream(Arrays.copyOf(specLog[i], fftSize_c)).toArray();
-                cepstrum[i] = Le4MusicUtils.fft(src);
-                ceps[i] = new double[13];
-                for (int j = 0; j < 13; j++) {
-                    ceps[i][j] = cepstrum[i][j].getReal();
-                } // これを１３こだけ使う予定(13次のケプストラム)
-            }
-            for (int i = 0; i < 13; i++) {
-                double sum = 0;
-                for (int j = 0; j < times.length; j++) {
-                    sum += ceps[j][i];
-                }
-                average[v][i] = sum / times.length;
-            }
-            for (int i = 0; i < 13; i++) {
-                double sum = 0;
-                for (int j = 0; j < times.length; j++) {
-                    sum += Math.pow((average[v][i] - ceps[j][i]), 2);
-                }
-                s_power[v][i] = sum / times.length;
-            }
+        /* 窓関数の長さ */
+        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration);
+        /* シフトの長さ */
+        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration / 8);
+        /* 母音認識の分析条件（表示用のスペクトログラムと同じく2のべき乗に0埋めする） */
+        final VowelModel.Analysis analysis = new VowelModel.Analysis(frameDuration, shiftDuration, true, 13);
+
+        /* 母音のモデル（保存されたモデルがあればそれを使う） */
+        final File modelFile = Optional.ofNullable(cmd.getOptionValue("model")).map(File::new).orElse(null);
+        final VowelModel model;
+        final File wavFile_tes; // テスト用の音声
+        if (pargs.length >= 6) {
+            final File[] wavFile = new File[5];
+            wavFile[0] = new File(pargs[0]);
+            wavFile[1] = new File(pargs[1]);
+            wavFile[2] = new File(pargs[2]);
+            wavFile[3] = new File(pargs[3]);
+            wavFile[4] = new File(pargs[4]);
+            model = modelFile != null ? VowelModel.loadOrTrain(modelFile, wavFile, analysis)
+                    : VowelModel.train(wavFile, analysis);
+            wavFile_tes = new File(pargs[5]);
+        } else if (modelFile != null) {
+            model = VowelModel.load(modelFile);
+            if (!model.analysis().equals(analysis))
+                throw new IOException("model was trained with different parameters: " + model.analysis());
+            wavFile_tes = new File(pargs[0]);
+        } else {
+            System.out.println("five training WAVFILEs or --model are not given.");
+            new HelpFormatter().printHelp(helpMessage, options);
+            Platform.exit();
+            return;
         }
+        final GaussianClassifier classifier = model.classifier(); // 最尤推定した平均と分散による識別器
 
-        final File wavFile_tes = new File(pargs[5]); // テスト用の音声
         System.out.println("test file is " + wavFile_tes);
         final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile_tes);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
+        final double[] waveform = WaveformDecoder.readWaveformMonaural(stream);
         final AudioFormat format = stream.getFormat();
         final double sampleRate = format.getSampleRate();
         final double nyquist = sampleRate * 0.5;
@@ -185,8 +141,6 @@ public final class GUI extends Application {
          * fftSize = 2ˆp >= frameSize を満たすfftSize を求める 2ˆp はシフト演算で求める
          */
         /* 窓関数とFFTのサンプル数 */
-        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration);
         final int frameSize = (int) Math.round(frameDuration * sampleRate);
         final int fftSize_test = 1 << Le4MusicUtils.nextPow2(frameSize);
         final int fftSize2_test = (fftSize_test >> 1) + 1;
@@ -194,109 +148,56 @@ public final class GUI extends Application {
          * 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める． 振幅を信号長で正規化する．
          */
         /* シフトのサンプル数 */
-        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration / 8);
         final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
         /* 窓関数を求め， それを正規化する */
         final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize_test),
                 1.0);
-        /* 短時間フーリエ変換本体 (for aiueo) */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを振幅スペクトログラムに (for aiueo) */
-        double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                .toArray(n -> new double[n][]);
-
-        /* 短時間フーリエ変換本体 (for spectrogram) */
-        final Stream<Complex[]> spectrogram1 = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに (for spectrogram) */
-        double[][] specLog1 = spectrogram1
-                .map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
+        /* 短時間フーリエ変換本体（1回だけ並列に計算し，以降の解析と表示は全てこれを用いる） */
+        /* 対数振幅を16ビットに量子化して持ち，解析にはフレームごとに振幅に戻して用いる */
+        final QuantizedSpectrogram specLog = new STFT(window, shiftSize).logMagnitude(waveform,
+                QuantizedSpectrogram.magnitudeLowerBound, 0.0, 16);
 
         /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-        final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
+        final double[] times = IntStream.range(0, specLog.frames()).mapToDouble(i -> i * shiftDuration).toArray();
 
-        Complex[][] cepstrum = new Complex[times.length][];
-        final double[][] ceps = new double[times.length][13];
+        /* ケプストラム分析（13次の係数を使う） */
+        final Cepstrum cepstrum = new Cepstrum(specLog.bins(), 13);
+        final double[] ceps = new double[13];
         int[] index = new int[times.length];
 
-        for (int i = 0; i < times.length; i++) {
-            int fftSize_c = 1 << Le4MusicUtils.nextPow2(specLog[i].length);
-            int fftSize2_c = (fftSize_c >> 1) + 1;
-            double[] src = Arrays.stream(Arrays.copyOf(specLog[i], fftSize_c)).toArray();
-            cepstrum[i] = Le4MusicUtils.fft(src);
-            for (int j = 0; j < 13; j++) {
-                ceps[i][j] = cepstrum[i][j].getReal();
-            } // これを１３こだけ使う予定
-
-        }
-        for (int i = 0; i < times.length; i++) {
-
-            double[] L = new double[5];
-            for (int aiueo = 0; aiueo < 5; aiueo++) {
-                double sum = 0;
-                for (int d = 0; d < 13; d++) {
-                    sum += Math.log(Math.sqrt(s_power[aiueo][d]))
-                            + (Math.pow((ceps[i][d] - average[aiueo][d]), 2) / (2 * s_power[aiueo][d]));
-                }
-                L[aiueo] = -1 * sum; // 対数尤度の計算
-            }
-            index[i] = Le4MusicUtils.argmax(L); // これが最も大きいのが認識結果の母音
-        }
         // (for f0)
         double[] f0 = new double[times.length];
         double[] new_freq = new double[times.length];
         final double lowerf0 = Le4MusicUtils.f0LowerBound;
         final double upperf0 = 400; // 基本周波数の最大値
 
-        for (int i = 0; i < times.length; i++) {
-            // specLog[i][j]が振幅
-            for (int j = 0; j < specLog[i].length; j++) {
-                if (j * sampleRate / fftSize_test < upperf0 && j * sampleRate / fftSize_test > lowerf0
-                        && specLog[i][j] > f0[i]) {
-                    f0[i] = specLog[i][j];
-                    new_freq[i] = j;
-                }
-            }
-        }
-        double[] time = new double[index.length];
-
-        // n mod 12 = 0
         // for chord recognization
         int[] harmony_ans = new int[times.length];
-        int[] code_counter = new int[12];
+        final Chroma chroma = new Chroma(sampleRate, fftSize_test);
+        final double[] chroma_v = new double[12]; // クロマベクトル
+
+        /* 各フレームについて母音・基本周波数・和音を一度に求める */
+        final double[] data = new double[specLog.bins()];
         for (int i = 0; i < times.length; i++) {
-            double[] chroma_v = new double[12]; // initialize(クロマベクトル)
-            for (int j = 0; j < specLog[i].length; j++) {
-                double f = j * sampleRate / fftSize_test;
-                if (f != 0) {
-                    int n = (int) Math.round(Le4MusicUtils.hz2nn(f));
-                    if (n >= 0) {
-                        int code = n % 12;
-                        code_counter[code] += 1;
-                        chroma_v[code] += Math.abs(specLog[i][j]);
-                    }
-                }
-            }
-            double[] harmony = new double[24]; // initialize(和音らしさ)
-            for (int y = 0; y < 12; y++) {
-                chroma_v[y] = chroma_v[y] / code_counter[y]; // 得られる音の数にばらつきがあるので,正規化(平均をとる)
-            }
-            for (int w = 0; w <= 23; w++) {
-                if (w % 2 == 0) { // major
-                    harmony[w] = 1.0 * chroma_v[w / 2] + 0.5 * chroma_v[(w / 2 + 4) % 12]
-                            + 0.8 * chroma_v[(w / 2 + 7) % 12];
-                } else { // minor
-                    harmony[w] = 1.0 * chroma_v[(w - 1) / 2] + 0.5 * chroma_v[((w - 1) / 2 + 3) % 12]
-                            + 0.8 * chroma_v[((w - 1) / 2 + 7) % 12];
+            specLog.magnitudeRow(i, data);
+
+            /* ケプストラム (for aiueo) */
+            cepstrum.coefficients(data, 0, ceps);
+            index[i] = classifier.classify(ceps, 0); // 対数尤度が最も大きいのが認識結果の母音
+
+            /* 基本周波数 (for f0) */
+            for (int j = 0; j < specLog.bins(); j++) {
+                final double amp = data[j]; // 振幅
+                if (j * sampleRate / fftSize_test < upperf0 && j * sampleRate / fftSize_test > lowerf0
+                        && amp > f0[i]) {
+                    f0[i] = amp;
+                    new_freq[i] = j;
                 }
             }
-            harmony_ans[i] = Le4MusicUtils.argmax(harmony);
 
+            /* クロマベクトルと和音 (for chord) */
+            chroma.chroma(data, 0, chroma_v);
+            harmony_ans[i] = Chroma.chord(chroma_v);
         }
 
         /* データ系列を作成 (for aiueo) あとで */
@@ -372,10 +273,12 @@ public final class GUI extends Application {
         System.out.println(yAxis.getCategories());
 
         /* チャートを作成 (for spectrogram) with animation */
+        final double[] row = new double[fftSize2_test];
         final LineChartWithSpectrogram<Number, Number> chart1 = new LineChartWithSpectrogram<>(xAxis1, yAxis1);
-        chart1.setParameters(specLog1.length, fftSize2_test, nyquist);
+        chart1.setParameters(specLog.frames(), fftSize2_test, nyquist);
         chart1.setTitle("Spectrogram");
-        Arrays.stream(specLog1).forEach(chart1::addSpecLog);
+        for (int i = 0; i < specLog.frames(); i++)
+            chart1.addSpecLog(specLog.row(i, row));
         chart1.setCreateSymbols(false);
         chart1.setLegendVisible(false);
         chart1.setAnimated(false);
@@ -383,8 +286,9 @@ public final class GUI extends Application {
 
         /* チャートを作成 (for f0) */
         final LineChartWithSpectrogram<Number, Number> chart2 = new LineChartWithSpectrogram<>(xAxis2, yAxis2);
-        chart2.setParameters(specLog1.length, fftSize2_test, nyquist);
-        Arrays.stream(specLog1).forEach(chart2::addSpecLog);
+        chart2.setParameters(specLog.frames(), fftSize2_test, nyquist);
+        for (int i = 0; i < specLog.frames(); i++)
+            chart2.addSpecLog(specLog.row(i, row));
         chart2.setTitle("f0");
         chart2.setCreateSymbols(false);
         chart2.setLegendVisible(false);
@@ -393,9 +297,7 @@ public final class GUI extends Application {
         /* チャートを作成 (for chord) */
         final LineChart<Number, String> chart3 = new LineChart<>(xAxis3, yAxis3);
         chart3.setTitle("chord");
-        String[] chord = new String[] { "C Major", "C Minor", "C# Major", "C# Minor", "D Major", "D Minor", "D# Major",
-                "D# Minor", "E Major", "E Minor", "F Major", "F Minor", "F# Major", "F# Minor", "G Major", "G Minor",
-                "G# Major", "G# Minor", "A Major", "A Minor", "A# Major", "A# Minor", "B Major", "B Minor" };
+        final String[] chord = Chroma.CHORD_NAMES;
 
         yAxis3.setCategories(FXCollections.<String>observableArrayList(chord));
         for (int i = 0; i < harmony_ans.length; i++) {
@@ -0,0 +1,147 @@
+/**
+ * 次元ごとに独立な正規分布（対角共分散）でクラスを表し，対数尤度が最大のクラスを選ぶ識別器です．
+ * クラスごとの正規化項 {@code -Σ log σ} と分散の逆数 {@code 1 / 2σ²} を生成時に一度だけ求めるため，
+ * 識別時は各フレーム・クラス・次元について積和のみを行う．
+ * 対数尤度はクラスに共通な定数項 {@code -(d/2) log 2π} を省いた値である．
+ * 生成後は変更されないため，複数のスレッドから同時に使ってよい．
+ */
+public final class GaussianClassifier {
+
+  private final int classes;
+  private final int dimension;
+
+  /** クラスごとの平均（クラス数 × 次元数，行優先） */
+  private final double[] mean;
+
+  /** クラスごとの 1 / 2σ²（クラス数 × 次元数，行優先） */
+  private final double[] inv2var;
+
+  /** クラスごとの正規化項 -Σ log σ */
+  private final double[] logNorm;
+
+  /**
+   * 平均と分散から識別器を作る．
+   *
+   * @param mean クラスごとの平均（クラス数 × 次元数）
+   * @param variance クラスごとの分散（クラス数 × 次元数）
+   * @throws IllegalArgumentException 大きさが揃っていないか，分散が正でないとき
+   */
+  public GaussianClassifier(final double[][] mean, final double[][] variance) {
+    if (mean.length == 0 || mean.length != variance.length)
+      throw new IllegalArgumentException(
+        "mean and variance must have the same positive number of classes: " +
+        mean.length + ", " + variance.length
+      );
+    this.classes = mean.length;
+    this.dimension = mean[0].length;
+    this.mean = new double[classes * dimension];
+    this.inv2var = new double[classes * dimension];
+    this.logNorm = new double[classes];
+    for (int c = 0; c < classes; c++) {
+      if (mean[c].length != dimension || variance[c].length != dimension)
+        throw new IllegalArgumentException("dimension of class " + c + " differs");
+      double norm = 0.0;
+      for (int d = 0; d < dimension; d++) {
+        final double v = variance[c][d];
+        if (!(v > 0.0))
+          throw new IllegalArgumentException(
+            "variance must be positive: class = " + c + ", dimension = " + d + ", variance = " + v
+          );
+        this.mean[c * dimension + d] = mean[c][d];
+        this.inv2var[c * dimension + d] = 0.5 / v;
+        norm -= 0.5 * Math.log(v);
+      }
+      this.logNorm[c] = norm;
+    }
+  }
+
+  /**
+   * クラス数を返す．
+   *
+   * @return クラス数
+   */
+  public final int classes() {
+    return classes;
+  }
+
+  /**
+   * 次元数を返す．
+   *
+   * @return 次元数
+   */
+  public final int dimension() {
+    return dimension;
+  }
+
+  /** クラス c の対数尤度 */
+  private final double score(final int c, final double[] x, final int offset) {
+    final int base = c * dimension;
+    double sum = logNorm[c];
+    for (int d = 0; d < dimension; d++) {
+      final double e = x[offset + d] - mean[base + d];
+      sum -= e * e * inv2var[base + d];
+    }
+    return sum;
+  }
+
+  /**
+   * 1フレームについて各クラスの対数尤度を求める．
+   *
+   * @param x 特徴量を含む配列
+   * @param offset 特徴量の開始位置
+   * @param dst 対数尤度の出力先（長さ {@link #classes()} 以上）
+   * @return 出力先
+   */
+  public final double[] logLikelihood(final double[] x, final int offset, final double[] dst) {
+    for (int c = 0; c < classes; c++)
+      dst[c] = score(c, x, offset);
+    return dst;
+  }
+
+  /**
+   * 1フレームを識別する．
+   *
+   * @param x 特徴量を含む配列
+   * @param offset 特徴量の開始位置
+   * @return 対数尤度が最大のクラス（同じ値なら番号の小さい方）
+   */
+  public final int classify(final double[] x, final int offset) {
+    int best = 0;
+    double bestScore = score(0, x, offset);
+    for (int c = 1; c < classes; c++) {
+      final double s = score(c, x, offset);
+      if (s > bestScore) {
+        best = c;
+        bestScore = s;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * 一定間隔で並んだ複数のフレームをまとめて識別する．
+   * クラスごとに全フレームを走査するため，1つのクラスのパラメータを使い回しながら処理できる．
+   *
+   * @param x 特徴量を含む配列
+   * @param offset 最初のフレームの開始位置
+   * @param stride フレームの間隔
+   * @param count フレーム数
+   * @param best 各フレームの対数尤度の最大値の作業領域（長さ {@code count} 以上）
+   * @param dst 各フレームのクラスの出力先（長さ {@code count} 以上）
+   * @return 出力先
+   */
+  public final int[] classify(final double[] x, final int offset, final int stride, final int count,
+                              final double[] best, final int[] dst) {
+    for (int c = 0; c < classes; c++) {
+      for (int i = 0, p = offset; i < count; i++, p += stride) {
+        final double s = score(c, x, p);
+        if (c == 0 || s > best[i]) {
+          best[i] = s;
+          dst[i] = c;
+        }
+      }
+    }
+    return dst;
+  }
+
+}
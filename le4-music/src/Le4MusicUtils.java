@@ -14,11 +14,7 @@ import java.util.concurrent.Executors;
 //import org.jfree.chart.JFreeChart;
 //import org.jfree.chart.ChartPanel;
 
-import org.apache.commons.math3.util.MathArrays;
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.TransformType;
 
 import java.io.IOException;
 import java.nio.*;
@@ -46,9 +42,6 @@ public final class Le4MusicUtils {
   /** 短時間分析におけるフレームのシフト長のデフォルト値（秒） */
   public static final double shiftDuration = 0.05;
 
-  private static final FastFourierTransformer transformer =
-    new FastFourierTransformer(DftNormalization.STANDARD);
-
   /**
    * 与えられた数nに対して 2<sup>p</sup> ≧ n を満たす最小のpを求める．
    * 例えば {@code nextPow2(15) = 4}, {@code nextPow2(16) = 4},
@@ -109,6 +102,8 @@ public final class Le4MusicUtils {
    * 窓関数を用いた配列の切り出しを行う．
    * 戻り値は {@link java.util.stream.Stream} インタフェースを実装するため，
    * 切り出し処理そのものは遅延評価される．
+   * 各要素は新しく確保された配列である．
+   * フレームを保持する必要がなければ {@link SlidingFrames} を用いると配列の確保を避けられる．
    *
    * @param x 切り出される配列
    * @param window 窓関数
@@ -120,115 +115,203 @@ public final class Le4MusicUtils {
     final double[] window,
     final int shiftSize
   ) {
-    final int nFrames = x.length / shiftSize;
-    return IntStream.range(0, nFrames).mapToObj(i -> {
-      final int from = i * shiftSize;
-      final double[] frame =
-        Arrays.copyOfRange(x, from, from + window.length);
-      return MathArrays.ebeMultiply(frame, window);
+    /* 窓掛けは切り出した配列の上で行い，フレームごとの確保を1回にする */
+    final SlidingFrames frames = new SlidingFrames(x, window, shiftSize);
+    return IntStream.range(0, frames.count()).mapToObj(i -> {
+      final double[] frame = new double[window.length];
+      frames.frame(i, frame);
+      return frame;
     });
   }
 
   /**
    * 入力複素配列をフーリエ変換する．
-   * 配列長は2のべき乗でなければならない．
+   * 配列長は任意の正の整数でよい．
+   * 配列長が2のべき乗でないときは混合基数または Bluestein のアルゴリズムが用いられる．
    *
    * @param src 入力複素配列
    * @return 入力配列のフーリエ変換である複素配列．配列長は入力と等しい
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が0のとき
    */
   public static final Complex[] fft(final Complex[] src) {
-    /* 配列の長さが2のべき乗かどうかチェック */
-    if (Integer.bitCount(src.length) != 1)
-      throw new IllegalArgumentException("src.length must be power of 2");
-    return transformer.transform(src, TransformType.FORWARD);
+    /* 配列の長さチェック */
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    final double[] a = interleave(src);
+    FFT.of(src.length).forward(a);
+    return deinterleave(a);
   }
 
   /**
    * 入力実配列をフーリエ変換する．
-   * 配列長は2のべき乗でなければならない．
+   * 配列長は任意の正の整数でよい．
    * このメソッドは実部が入力配列，虚部が0の複素配列を引数とした
    * {@link #fft(Complex[])} と等価である．
    *
    * @param src 入力実配列
    * @return 入力配列のフーリエ変換である複素配列．配列長は入力と等しい
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が0のとき
    */
   public static final Complex[] fft(final double[] src) {
-    /* 配列の長さが2のべき乗かどうかチェック */
-    if (Integer.bitCount(src.length) != 1)
-      throw new IllegalArgumentException("src.length must be power of 2");
-    return transformer.transform(src, TransformType.FORWARD);
+    /* 配列の長さチェック */
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    /* 片側スペクトルを求め，残りは複素共役で埋める */
+    final int bins = (src.length >> 1) + 1;
+    final double[] re = new double[bins];
+    final double[] im = new double[bins];
+    RealFFT.of(src.length).forward(src, re, im);
+    final Complex[] dst = new Complex[src.length];
+    for (int k = 0; k < bins; k++)
+      dst[k] = new Complex(re[k], im[k]);
+    for (int k = bins; k < src.length; k++)
+      dst[k] = dst[src.length - k].conjugate();
+    return dst;
   }
 
   /**
    * 入力複素配列を逆フーリエ変換する．
-   * 配列長は2のべき乗でなければならない．
+   * 配列長は任意の正の整数でよい．
    *
    * @param src 入力複素配列
    * @return 入力配列の逆フーリエ変換である複素配列．配列長は入力と等しい
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が0のとき
    */
   public static final Complex[] ifft(final Complex[] src) {
-    /* 配列の長さが2のべき乗かどうかチェック */
-    if (Integer.bitCount(src.length) != 1)
-      throw new IllegalArgumentException("src.length must be power of 2");
-    return transformer.transform(src, TransformType.INVERSE);
+    /* 配列の長さチェック */
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    final double[] a = interleave(src);
+    FFT.of(src.length).inverse(a);
+    return deinterleave(a);
   }
 
   /**
    * 入力実配列を逆フーリエ変換する．
-   * 配列長は2のべき乗でなければならない．
+   * 配列長は任意の正の整数でよい．
    * このメソッドは実部が入力配列，虚部が0の複素配列を引数とした
    * {@link #fft(Complex[])} の実行と等価である．
    *
    * @param src 入力実配列
    * @return 入力配列の逆フーリエ変換である複素配列．配列長は入力と等しい
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が0のとき
    */
   public static final Complex[] ifft(final double[] src) {
-    /* 配列の長さが2のn乗かどうかチェック */
-    if (Integer.bitCount(src.length) != 1)
-      throw new IllegalArgumentException("src.length must be power of 2");
-    return transformer.transform(src, TransformType.INVERSE);
+    /* 配列の長さチェック */
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    final double[] a = new double[src.length << 1];
+    for (int i = 0; i < src.length; i++)
+      a[2 * i] = src[i];
+    FFT.of(src.length).inverse(a);
+    return deinterleave(a);
   }
 
   /**
-   * 入力実配列（長さ 2<sup>n</sup>）をフーリエ変換し，
-   * 複素配列（長さ 2<sup>n-1</sup>+1）を返す．
+   * 入力実配列（長さ n）をフーリエ変換し，
+   * 複素配列（長さ n/2+1，端数切り捨て）を返す．
    * 実配列のフーリエ変換は対称（複素共役）配列，という性質に基づく．
+   * 配列長は2のべき乗でなくてよいので，フレーム長をそのまま変換長にできる．
    *
    * @param src 入力実配列
    * @return 入力配列のフーリエ変換である複素配列
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が0のとき
    */
   public static final Complex[] rfft(final double[] src) {
     /* 配列の長さチェック */
-    if (Integer.bitCount(src.length) != 1)
-      throw new IllegalArgumentException("src.length must be power of 2");
-    return Arrays.copyOf(transformer.transform(src, TransformType.FORWARD),
-                         (src.length >> 1) + 1);
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    final int bins = (src.length >> 1) + 1;
+    final double[] re = new double[bins];
+    final double[] im = new double[bins];
+    rfft(src, re, im);
+    final Complex[] dst = new Complex[bins];
+    for (int k = 0; k < bins; k++)
+      dst[k] = new Complex(re[k], im[k]);
+    return dst;
   }
 
   /**
-   * 入力複素配列（長さ 2<sup>n-1</sup>+1）をフーリエ変換し，
-   * 実配列（長さ 2<sup>n</sup>）を返す．
+   * 入力実配列（長さ n）をフーリエ変換し，
+   * 片側スペクトル（長さ n/2+1，端数切り捨て）の実部と虚部を
+   * 呼び出し側が用意した配列に書き込む．
+   * 回転因子などは {@link RealFFT#of(int)} によって変換長ごとにキャッシュされるため，
+   * 変換ごとの配列の確保はない．
+   *
+   * @param src 入力実配列
+   * @param re スペクトルの実部の出力先（長さ n/2+1 以上）
+   * @param im スペクトルの虚部の出力先（長さ n/2+1 以上）
+   * @throws IllegalArgumentException 配列長が0のとき
+   */
+  public static final void rfft(final double[] src, final double[] re, final double[] im) {
+    /* 配列の長さチェック */
+    if (src.length == 0)
+      throw new IllegalArgumentException("src.length must be positive");
+    RealFFT.of(src.length).forward(src, re, im);
+  }
+
+  /**
+   * 入力複素配列（長さ m+1）を逆フーリエ変換し，
+   * 実配列（長さ 2m）を返す．
    * 実配列のフーリエ変換は対称（複素共役）配列，という性質に基づく．
+   * 奇数長の実配列に戻したいときは {@link #irfft(double[], double[], double[])} を用いる．
    *
    * @param src 入力複素配列
    * @return 入力配列の逆フーリエ変換である実配列
-   * @throws IllegalArgumentException 配列長が2のべき乗でないとき
+   * @throws IllegalArgumentException 配列長が2未満のとき
    */
   public static final double[] irfft(final Complex[] src) {
     /* 配列の長さチェック */
-    if (Integer.bitCount(src.length - 1) != 1)
-      throw new IllegalArgumentException("src.length must be 2^n + 1");
-    final int fftSize = (src.length - 1) << 1;
-    final Complex[] src0 = Arrays.copyOf(src, fftSize);
-    Arrays.fill(src0, src.length, fftSize, Complex.ZERO);
-    return Arrays.stream(transformer.transform(src0, TransformType.INVERSE))
-                 .mapToDouble(c -> c.getReal())
-                 .toArray();
+    if (src.length < 2)
+      throw new IllegalArgumentException("src.length must be at least 2");
+    final double[] re = new double[src.length];
+    final double[] im = new double[src.length];
+    for (int k = 0; k < src.length; k++) {
+      re[k] = src[k].getReal();
+      im[k] = src[k].getImaginary();
+    }
+    final double[] dst = new double[(src.length - 1) << 1];
+    irfft(re, im, dst);
+    return dst;
+  }
+
+  /**
+   * 片側スペクトル（長さ m+1）の実部と虚部を逆フーリエ変換し，
+   * 実配列を呼び出し側が用意した配列に書き込む．
+   * 変換長は出力先の配列長（2m または 2m+1）で決まる．
+   *
+   * @param re スペクトルの実部
+   * @param im スペクトルの虚部
+   * @param dst 実配列の出力先（長さ 2m または 2m+1）
+   * @throws IllegalArgumentException 配列長が合わないとき
+   */
+  public static final void irfft(final double[] re, final double[] im, final double[] dst) {
+    /* 配列の長さチェック */
+    if (im.length != re.length || dst.length == 0 || (dst.length >> 1) + 1 != re.length)
+      throw new IllegalArgumentException(
+        "re.length and im.length must be dst.length / 2 + 1: " +
+        "re.length = " + re.length + ", im.length = " + im.length +
+        ", dst.length = " + dst.length
+      );
+    RealFFT.of(dst.length).inverse(re, im, dst);
+  }
+
+  /** 複素配列を interleaved 形式の実配列に変換する． */
+  private static final double[] interleave(final Complex[] src) {
+    final double[] a = new double[src.length << 1];
+    for (int i = 0; i < src.length; i++) {
+      a[2 * i] = src[i].getReal();
+      a[2 * i + 1] = src[i].getImaginary();
+    }
+    return a;
+  }
+
+  /** interleaved 形式の実配列を複素配列に変換する． */
+  private static final Complex[] deinterleave(final double[] a) {
+    final Complex[] dst = new Complex[a.length >> 1];
+    for (int i = 0; i < dst.length; i++)
+      dst[i] = new Complex(a[2 * i], a[2 * i + 1]);
+    return dst;
   }
 
   /**
@@ -416,6 +499,7 @@ public final class Le4MusicUtils {
   /**
    * AudioInputStreamからデータを読み込んでデコードし，
    * チャネルごとの波形が格納された配列を返す．
+   * 読み込みとデコードは {@link WaveformDecoder} によりブロック単位で行われる．
    *
    * @param stream ストリーム
    * @return チャネルごとの波形が格納された配列
@@ -423,59 +507,13 @@ public final class Le4MusicUtils {
    */
   public static final double[][] readWaveform(final AudioInputStream stream)
     throws IOException {
-    final AudioFormat format = stream.getFormat();
-    final double sampleRate = format.getSampleRate();
-
-    final int samples = (int)stream.getFrameLength();
-    final int channels = format.getChannels();
-    final AudioFormat.Encoding encoding = format.getEncoding();
-    final int quantizationBits = format.getSampleSizeInBits();
-    final ByteOrder endian = format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-    final double[][] waveform = new double[channels][samples];
-
-    if (encoding == AudioFormat.Encoding.PCM_UNSIGNED && quantizationBits == 8) {
-      final byte[] buf = new byte[1];
-      for (int i = 0; i < samples; i++)
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[j][i] = unsignedByte2Double(buf[0]);
-        }
-    } else if (encoding == AudioFormat.Encoding.PCM_SIGNED && quantizationBits == 16) {
-      final byte[] buf = new byte[2];
-      final ShortBuffer sbuf = ByteBuffer.wrap(buf).order(endian).asShortBuffer();
-      for (int i = 0; i < samples; i++)
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[j][i] = short2Double(sbuf.get(0));
-        }      
-    } else if (encoding == AudioFormat.Encoding.PCM_SIGNED && quantizationBits == 24) {
-      final byte[] buf = new byte[3];
-      for (int i = 0; i < samples; i++)
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[j][i] = signed3Bytes2Double(buf);
-        }      
-    } else if (encoding == AudioFormat.Encoding.PCM_FLOAT && quantizationBits == 32) {
-      final byte[] buf = new byte[4];
-      final FloatBuffer fbuf = ByteBuffer.wrap(buf).order(endian).asFloatBuffer();
-      for (int i = 0; i < samples; i++)
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[j][i] = fbuf.get(0);
-        }      
-    } else {
-      throw new IllegalArgumentException(
-        "Unsupported encoding and quantization bits: " +
-        "encoding = " + encoding + ", bits = " + quantizationBits
-      );
-    }
-
-    return waveform;
+    return WaveformDecoder.readWaveform(stream);
   }
 
   /**
    * AudioInputStreamからデータを読み込んでデコードし，
    * 全チャネルの平均波形が格納された配列を返す．
+   * 読み込みとデコードは {@link WaveformDecoder} によりブロック単位で行われる．
    *
    * @param stream ストリーム
    * @return 全チャネルの平均波形が格納された配列
@@ -483,62 +521,7 @@ public final class Le4MusicUtils {
    */
   public static final double[] readWaveformMonaural(final AudioInputStream stream)
     throws IOException {
-    final AudioFormat format = stream.getFormat();
-    final double sampleRate = format.getSampleRate();
-
-    final int samples = (int)stream.getFrameLength();
-    final int channels = format.getChannels();
-    final AudioFormat.Encoding encoding = format.getEncoding();
-    final int quantizationBits = format.getSampleSizeInBits();
-    final ByteOrder endian = format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-    final double[] waveform = new double[samples];
-
-    if (encoding == AudioFormat.Encoding.PCM_UNSIGNED && quantizationBits == 8) {
-      final byte[] buf = new byte[1];
-      for (int i = 0; i < samples; i++) {
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[i] = unsignedByte2Double(buf[0]);
-        }
-        waveform[i] /= channels;
-      }
-    } else if (encoding == AudioFormat.Encoding.PCM_SIGNED && quantizationBits == 16) {
-      final byte[] buf = new byte[2];
-      final ShortBuffer sbuf = ByteBuffer.wrap(buf).order(endian).asShortBuffer();
-      for (int i = 0; i < samples; i++) {
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[i] = short2Double(sbuf.get(0));
-        }
-        waveform[i] /= channels;
-      }
-    } else if (encoding == AudioFormat.Encoding.PCM_SIGNED && quantizationBits == 24) {
-      final byte[] buf = new byte[3];
-      for (int i = 0; i < samples; i++) {
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[i] = signed3Bytes2Double(buf);
-        }
-        waveform[i] /= channels;
-      }
-    } else if (encoding == AudioFormat.Encoding.PCM_FLOAT && quantizationBits == 32) {
-      final byte[] buf = new byte[4];
-      final FloatBuffer fbuf = ByteBuffer.wrap(buf).order(endian).asFloatBuffer();
-      for (int i = 0; i < samples; i++) {
-        for (int j = 0; j < channels; j++) {
-          IOMisc.readFully(stream, buf);
-          waveform[i] = fbuf.get(0);
-        }
-        waveform[i] /= channels;
-      }
-    } else {
-      throw new IllegalArgumentException(
-        "Unsupported encoding and quantization bits: " +
-        "encoding = " + encoding + ", bits = " + quantizationBits
-      );
-    }
-
-    return waveform;
+    return WaveformDecoder.readWaveformMonaural(stream);
   }
 
   /**
@@ -748,18 +731,6 @@ public final class Le4MusicUtils {
     AudioSystem.write(ais, AudioFileFormat.Type.WAVE, wavFile);
   }
 
-  private static final double unsignedByte2Double(byte x) {
-    return (x ^ 0xffffff80) / 128.0;
-  }
-
-  private static final double short2Double(short x) {
-    return x / 32768.0;
-  }
-
-  private static final double signed3Bytes2Double(final byte[] x) {
-    return ((x[2] << 16) | ((x[1] & 0xff) << 8) | (x[0] & 0xff)) / 8388608.0;
-  }
-
   public static final ScheduledExecutorService
   newSingleDaemonThreadScheduledExecutor() {
     return Executors.newSingleThreadScheduledExecutor(
@@ -0,0 +1,154 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import jp.ac.kyoto_u.kuis.le4music.HotColormapByteBgraPre;
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/**
+ * {@link SpectrogramTileCache} のタイルからスペクトログラムを描画する折れ線グラフです．
+ * 描画のたびに，軸の表示範囲に入るフレーム・ビンのタイルだけを要求し，画面の1ピクセルごとに
+ * 最も近いフレーム・ビンの値を色に変換する．
+ * そのため描画の計算量は画面の大きさと新たに見えたタイルの数で決まり，ファイル全体の長さにはよらない．
+ * 時間軸はマウスホイールで拡大・縮小，ドラッグで移動できる．
+ */
+public class LineChartWithTiledSpectrogram extends LineChart<Number, Number> {
+
+  private final NumberAxis xAxis;
+  private final NumberAxis yAxis;
+  private final Canvas canvas = new Canvas();
+
+  private final SpectrogramTileCache tiles;
+  private final double shiftDuration;
+  private final double binWidth;
+
+  /** 量子化された値ごとの色（BGRA，乗算済み） */
+  private final byte[] colors = new byte[SpectrogramTileCache.LEVELS * 4];
+
+  /** 描画用の画像と画素の配列（グラフの大きさが変わったときだけ作り直す） */
+  private WritableImage image;
+  private byte[] pixels = new byte[0];
+
+  /** 画面の各行に対応するビン（範囲外は -1） */
+  private int[] rowBins = new int[0];
+
+  /** ドラッグ開始位置の時刻 */
+  private double dragTime;
+
+  /**
+   * グラフを作る．
+   *
+   * @param xAxis 時間軸 [seconds]
+   * @param yAxis 周波数軸 [Hz]
+   * @param tiles スペクトログラムのタイル
+   * @param shiftDuration フレームのシフト長 [seconds]
+   * @param nyquist ナイキスト周波数 [Hz]
+   */
+  public LineChartWithTiledSpectrogram(final NumberAxis xAxis, final NumberAxis yAxis,
+                                       final SpectrogramTileCache tiles,
+                                       final double shiftDuration, final double nyquist) {
+    super(xAxis, yAxis);
+    this.xAxis = xAxis;
+    this.yAxis = yAxis;
+    this.tiles = tiles;
+    this.shiftDuration = shiftDuration;
+    this.binWidth = nyquist / (tiles.bins() - 1);
+    final HotColormapByteBgraPre colormap = new HotColormapByteBgraPre(tiles.dequantize(0),
+                                                                       tiles.dequantize(SpectrogramTileCache.LEVELS - 1));
+    for (int q = 0; q < SpectrogramTileCache.LEVELS; q++)
+      colormap.setPixel(tiles.dequantize(q), colors, q * 4);
+    canvas.setManaged(false);
+    canvas.setMouseTransparent(true);
+    getPlotChildren().add(0, canvas);
+
+    /* 時間軸の拡大・縮小と移動 */
+    setOnScroll(e -> {
+      final double x = xAxis.sceneToLocal(e.getSceneX(), e.getSceneY()).getX();
+      final double center = xAxis.getValueForDisplay(x).doubleValue();
+      final double scale = e.getDeltaY() > 0 ? 0.8 : 1.25;
+      setTimeRange(center - (center - xAxis.getLowerBound()) * scale,
+                   center + (xAxis.getUpperBound() - center) * scale);
+    });
+    setOnMousePressed(e -> dragTime = timeAt(e.getSceneX(), e.getSceneY()));
+    setOnMouseDragged(e -> {
+      final double shift = dragTime - timeAt(e.getSceneX(), e.getSceneY());
+      setTimeRange(xAxis.getLowerBound() + shift, xAxis.getUpperBound() + shift);
+    });
+  }
+
+  private final double timeAt(final double sceneX, final double sceneY) {
+    return xAxis.getValueForDisplay(xAxis.sceneToLocal(sceneX, sceneY).getX()).doubleValue();
+  }
+
+  /**
+   * 時間軸の表示範囲を設定する．範囲はスペクトログラムの長さに収まるよう調整される．
+   *
+   * @param lower 表示範囲の下限 [seconds]
+   * @param upper 表示範囲の上限 [seconds]
+   */
+  public final void setTimeRange(final double lower, final double upper) {
+    final double duration = Math.max(shiftDuration, (tiles.frames() - 1) * shiftDuration);
+    final double width = Math.min(duration, Math.max(shiftDuration, upper - lower));
+    final double from = Math.max(0.0, Math.min(duration - width, lower));
+    xAxis.setLowerBound(from);
+    xAxis.setUpperBound(from + width);
+    xAxis.setTickUnit(Le4MusicUtils.autoTickUnit(width));
+  }
+
+  @Override
+  protected void layoutPlotChildren() {
+    super.layoutPlotChildren();
+    final int width = (int)Math.round(xAxis.getWidth());
+    final int height = (int)Math.round(yAxis.getHeight());
+    if (width <= 0 || height <= 0)
+      return;
+    if (image == null || (int)image.getWidth() != width || (int)image.getHeight() != height) {
+      image = new WritableImage(width, height);
+      pixels = new byte[width * height * 4];
+      rowBins = new int[height];
+      canvas.setWidth(width);
+      canvas.setHeight(height);
+    }
+    draw(width, height);
+    image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(),
+                                     pixels, 0, width * 4);
+    canvas.getGraphicsContext2D().drawImage(image, 0, 0);
+  }
+
+  private final void draw(final int width, final int height) {
+    final int frames = tiles.frames();
+    final int bins = tiles.bins();
+    for (int py = 0; py < height; py++) {
+      final int bin = (int)Math.round(yAxis.getValueForDisplay(py + 0.5).doubleValue() / binWidth);
+      rowBins[py] = bin >= 0 && bin < bins ? bin : -1;
+    }
+    for (int px = 0; px < width; px++) {
+      final double time = xAxis.getValueForDisplay(px + 0.5).doubleValue();
+      final int frame = (int)Math.round(time / shiftDuration);
+      final boolean inside = frame >= 0 && frame < frames;
+      final int column = frame / SpectrogramTileCache.TILE_FRAMES;
+      final int row = (frame - column * SpectrogramTileCache.TILE_FRAMES) * SpectrogramTileCache.TILE_BINS;
+      /* 同じ周波数帯のタイルが続く間は取り直さない */
+      int band = -1;
+      byte[] tile = null;
+      for (int py = 0; py < height; py++) {
+        final int offset = (py * width + px) * 4;
+        final int bin = inside ? rowBins[py] : -1;
+        if (bin < 0) {
+          pixels[offset] = pixels[offset + 1] = pixels[offset + 2] = pixels[offset + 3] = 0;
+          continue;
+        }
+        final int b = bin / SpectrogramTileCache.TILE_BINS;
+        if (b != band) {
+          band = b;
+          tile = tiles.tile(column, band);
+        }
+        final int q = tile[row + bin - band * SpectrogramTileCache.TILE_BINS] & 0xff;
+        System.arraycopy(colors, q * 4, pixels, offset, 4);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,252 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.paint.Color;
+
+/**
+ * 波形を {@link Canvas} に描画する折れ線グラフです．
+ * 波形は {@link javafx.scene.chart.XYChart.Data} を作らずに配列のまま保持し，
+ * 描画時に画面の横1ピクセルに入るサンプルの最小値と最大値を求めて縦線を引く．
+ * そのため描画の計算量はサンプル数ではなくグラフの幅に比例する（サンプルの最小値・最大値を求める走査を除く）．
+ * 1ピクセルあたりのサンプル数が1未満のときは各サンプルを折れ線で結ぶ．
+ * 波形の要約（{@link WaveformPyramid}）が設定されていれば，1ピクセルに要約が1個以上入る縮尺では
+ * サンプルの代わりに要約を読むため，長いファイルでも描画の計算量は画面の幅に比例する．
+ * 軸・タイトル・通常のデータ系列はそのまま表示される．
+ */
+public class LineChartWithWaveform extends LineChart<Number, Number> {
+
+  private final NumberAxis xAxis;
+  private final NumberAxis yAxis;
+  private final Canvas canvas = new Canvas();
+
+  /** 表示する波形（JavaFXのスレッドでのみ使う） */
+  private double[] samples = new double[0];
+  private int length;
+  private double startTime;
+  private double sampleRate = 1.0;
+
+  /** 表示する波形の要約（無ければ null） */
+  private WaveformPyramid pyramid;
+  private final double[] summary = new double[3];
+
+  /** 他のスレッドから渡された最新のフレーム */
+  private double[] pending = new double[0];
+  private int pendingLength;
+  private double pendingStartTime;
+  private double pendingSampleRate;
+  private final CoalescingUpdate update = new CoalescingUpdate(this::takeFrame);
+
+  /** 表示中のフレーム（{@link #offerFrame} で渡されたものの複製） */
+  private double[] frameBuffer = new double[0];
+
+  private Color color = Color.web("#f3622d");
+
+  /**
+   * グラフを作る．
+   *
+   * @param xAxis 時間軸 [seconds]
+   * @param yAxis 振幅軸
+   */
+  public LineChartWithWaveform(final NumberAxis xAxis, final NumberAxis yAxis) {
+    super(xAxis, yAxis);
+    this.xAxis = xAxis;
+    this.yAxis = yAxis;
+    canvas.setManaged(false);
+    canvas.setMouseTransparent(true);
+    getPlotChildren().add(0, canvas);
+  }
+
+  /**
+   * 波形の色を設定する．
+   *
+   * @param color 波形の色
+   */
+  public final void setWaveformColor(final Color color) {
+    this.color = color;
+    requestLayout();
+  }
+
+  /**
+   * 表示する波形を設定する．配列は複製されずに参照されるので，表示中は書き換えないこと．
+   * JavaFXのスレッドから呼ぶこと．
+   *
+   * @param samples 波形
+   * @param length サンプル数
+   * @param startTime 先頭のサンプルの時刻 [seconds]
+   * @param sampleRate サンプリング周波数 [Hz]
+   */
+  public final void setWaveform(final double[] samples, final int length,
+                                final double startTime, final double sampleRate) {
+    this.samples = samples;
+    this.length = length;
+    this.startTime = startTime;
+    this.sampleRate = sampleRate;
+    this.pyramid = null;
+    requestLayout();
+  }
+
+  /**
+   * 表示する波形を要約で設定する．
+   * 縮尺が第0段の要約より細かいときはサンプルを描画するので，サンプルがあれば併せて渡す．
+   * 配列は複製されずに参照されるので，表示中は書き換えないこと．
+   * JavaFXのスレッドから呼ぶこと．
+   *
+   * @param pyramid 波形の要約
+   * @param samples 波形（無ければ null．そのときは第0段の要約で描画する）
+   * @param startTime 先頭のサンプルの時刻 [seconds]
+   */
+  public final void setWaveform(final WaveformPyramid pyramid, final double[] samples, final double startTime) {
+    this.samples = samples != null ? samples : new double[0];
+    this.length = this.samples.length;
+    this.startTime = startTime;
+    this.sampleRate = pyramid.sampleRate();
+    this.pyramid = pyramid;
+    requestLayout();
+  }
+
+  /**
+   * 再生・録音中のフレームを表示し，時間軸の範囲をフレームの範囲に合わせる．
+   * フレームは内部の配列に複製されるので，呼び出し後に書き換えてよい．
+   * どのスレッドから呼んでもよく，表示の更新はJavaFXのスレッドでまとめて行われる．
+   * 配列の確保はフレーム長が変わったときだけ行う．
+   *
+   * @param frame フレーム
+   * @param startTime 先頭のサンプルの時刻 [seconds]
+   * @param sampleRate サンプリング周波数 [Hz]
+   */
+  public final void offerFrame(final double[] frame, final double startTime, final double sampleRate) {
+    synchronized (update) {
+      if (pending.length < frame.length)
+        pending = new double[frame.length];
+      System.arraycopy(frame, 0, pending, 0, frame.length);
+      pendingLength = frame.length;
+      pendingStartTime = startTime;
+      pendingSampleRate = sampleRate;
+    }
+    update.request();
+  }
+
+  private final void takeFrame() {
+    synchronized (update) {
+      if (frameBuffer.length < pendingLength)
+        frameBuffer = new double[pending.length];
+      System.arraycopy(pending, 0, frameBuffer, 0, pendingLength);
+      samples = frameBuffer;
+      pyramid = null;
+      length = pendingLength;
+      startTime = pendingStartTime;
+      sampleRate = pendingSampleRate;
+    }
+    xAxis.setLowerBound(startTime);
+    xAxis.setUpperBound(startTime + length / sampleRate);
+    requestLayout();
+  }
+
+  @Override
+  protected void layoutPlotChildren() {
+    super.layoutPlotChildren();
+    final double width = xAxis.getWidth();
+    final double height = yAxis.getHeight();
+    if (canvas.getWidth() != width || canvas.getHeight() != height) {
+      canvas.setWidth(width);
+      canvas.setHeight(height);
+    }
+    draw(canvas.getGraphicsContext2D(), width, height);
+  }
+
+  private final void draw(final GraphicsContext gc, final double width, final double height) {
+    gc.clearRect(0, 0, width, height);
+    final long total = pyramid != null ? pyramid.length() : length;
+    if (total == 0 || width <= 0 || height <= 0)
+      return;
+    /* 時刻 t の横位置は x0 + t * sx，振幅 v の縦位置は y0 + v * sy（軸はどちらも線形） */
+    final double x0 = xAxis.getDisplayPosition(0.0);
+    final double sx = xAxis.getDisplayPosition(1.0) - x0;
+    final double y0 = yAxis.getDisplayPosition(0.0);
+    final double sy = yAxis.getDisplayPosition(1.0) - y0;
+    if (!(sx > 0.0))
+      return;
+    /* 表示範囲のサンプル */
+    final double first = (xAxis.getLowerBound() - startTime) * sampleRate;
+    final double last = (xAxis.getUpperBound() - startTime) * sampleRate;
+    final long from = (long)Math.max(0, Math.floor(first));
+    final long to = (long)Math.min(total, Math.ceil(last) + 1);
+    if (from >= to)
+      return;
+    final double samplesPerPixel = sampleRate / sx;
+    gc.setStroke(color);
+    gc.setFill(color);
+    gc.setLineWidth(1.0);
+    if (pyramid != null) {
+      final int level = pyramid.level(samplesPerPixel);
+      if (level >= 0 || to > length) {
+        drawSummary(gc, Math.max(0, level), from, to, x0, sx, y0, sy, width);
+        return;
+      }
+    }
+    drawSamples(gc, (int)from, (int)to, samplesPerPixel, x0, sx, y0, sy, width);
+  }
+
+  /** 要約の最小値と最大値を横1ピクセルごとに描画する */
+  private final void drawSummary(final GraphicsContext gc, final int level, final long from, final long to,
+                                 final double x0, final double sx, final double y0, final double sy,
+                                 final double width) {
+    final int left = (int)Math.max(0, Math.floor(x0 + (startTime + from / sampleRate) * sx));
+    final int right = (int)Math.min(Math.ceil(width), Math.ceil(x0 + (startTime + to / sampleRate) * sx));
+    for (int px = left; px <= right; px++) {
+      final long begin = Math.max(from, (long)Math.floor(((px - x0) / sx - startTime) * sampleRate));
+      final long end = Math.min(to, (long)Math.ceil(((px + 1 - x0) / sx - startTime) * sampleRate));
+      if (begin >= end || !pyramid.summary(level, begin, end, summary))
+        continue;
+      final double top = y0 + summary[1] * sy;
+      final double bottom = y0 + summary[0] * sy;
+      gc.fillRect(px, Math.min(top, bottom), 1.0, Math.max(1.0, Math.abs(bottom - top)));
+    }
+  }
+
+  /** サンプルを描画する */
+  private final void drawSamples(final GraphicsContext gc, final int from, final int to,
+                                 final double samplesPerPixel,
+                                 final double x0, final double sx, final double y0, final double sy,
+                                 final double width) {
+    if (samplesPerPixel < 1.0) {
+      gc.beginPath();
+      for (int i = from; i < to; i++) {
+        final double x = x0 + (startTime + i / sampleRate) * sx;
+        final double y = y0 + samples[i] * sy;
+        if (i == from)
+          gc.moveTo(x, y);
+        else
+          gc.lineTo(x, y);
+      }
+      gc.stroke();
+      return;
+    }
+    /* 横1ピクセルごとの最小値と最大値（隣の列とつながるよう直前のサンプルも含める） */
+    final int left = (int)Math.floor(x0 + (startTime + from / sampleRate) * sx);
+    final int right = (int)Math.ceil(x0 + (startTime + (to - 1) / sampleRate) * sx);
+    int i = from;
+    double prev = samples[from];
+    for (int px = Math.max(0, left); px <= Math.min(right, (int)Math.ceil(width)); px++) {
+      final int end = (int)Math.min(to, Math.ceil(((px + 1 - x0) / sx - startTime) * sampleRate));
+      if (i >= end)
+        continue;
+      double min = prev;
+      double max = prev;
+      for (; i < end; i++) {
+        final double v = samples[i];
+        if (v < min)
+          min = v;
+        else if (v > max)
+          max = v;
+      }
+      prev = samples[end - 1];
+      /* 振幅軸は上向きなので最大値の方が上（縦位置が小さい） */
+      final double top = y0 + max * sy;
+      final double bottom = y0 + min * sy;
+      gc.fillRect(px, Math.min(top, bottom), 1.0, Math.max(1.0, Math.abs(bottom - top)));
+    }
+  }
+
+}
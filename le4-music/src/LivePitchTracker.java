@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+import org.apache.commons.math3.util.MathArrays;
+
+/**
+ * 録音・再生中のフレームから基本周波数を推定するクラスです．
+ * フレームをさらにシフト長ごとの小フレームに分け（小フレームの長さはフレーム長を2のべき乗に切り上げたもの，
+ * 足りない部分は0で埋める），各小フレームで上限周波数以下の振幅が最大のビンを求め，
+ * その最小値を基本周波数とする．
+ * 窓関数・FFTのプラン・作業用の配列は生成時に一度だけ確保され，{@link #f0} はヒープを確保しない．
+ * 作業用の配列を持つため，1つのインスタンスを複数のスレッドから同時に使ってはならない．
+ */
+public final class LivePitchTracker {
+
+  private final double sampleRate;
+  private final int shiftSize;
+  private final int fftSize;
+
+  /** 探索する最大のビン */
+  private final int maxBin;
+
+  private final double[] window;
+  private final RealFFT rfft;
+  private final double[] wframe;
+  private final double[] re;
+  private final double[] im;
+
+  /**
+   * 基本周波数の推定器を作る．
+   *
+   * @param sampleRate サンプリング周波数
+   * @param frameSize フレーム長
+   * @param shiftSize 小フレームのシフト長
+   * @param upperBound 探索する周波数の上限 (Hz)
+   */
+  public LivePitchTracker(final double sampleRate, final int frameSize, final int shiftSize,
+                          final double upperBound) {
+    if (frameSize <= 0 || shiftSize <= 0)
+      throw new IllegalArgumentException(
+        "frameSize and shiftSize must be positive: " +
+        "frameSize = " + frameSize + ", shiftSize = " + shiftSize
+      );
+    this.sampleRate = sampleRate;
+    this.shiftSize = shiftSize;
+    this.fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+    this.window = MathArrays.normalizeArray(
+      Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
+    this.rfft = RealFFT.of(fftSize);
+    this.maxBin = (int)Math.min(rfft.bins() - 1, Math.floor(upperBound * fftSize / sampleRate));
+    this.wframe = new double[fftSize];
+    this.re = new double[rfft.bins()];
+    this.im = new double[rfft.bins()];
+  }
+
+  /**
+   * FFTのサンプル数を返す．
+   *
+   * @return FFTのサンプル数
+   */
+  public final int fftSize() {
+    return fftSize;
+  }
+
+  /**
+   * フレームの基本周波数のビン番号を求める．
+   *
+   * @param frame フレーム
+   * @return 各小フレームで振幅が最大のビンのうち最小のもの
+   */
+  public final int f0Bin(final double[] frame) {
+    final int count = Math.max(1, frame.length / shiftSize);
+    int min = Integer.MAX_VALUE;
+    for (int m = 0; m < count; m++) {
+      final int from = m * shiftSize;
+      final int n = Math.max(0, Math.min(fftSize, frame.length - from));
+      for (int k = 0; k < n; k++)
+        wframe[k] = frame[from + k] * window[k];
+      Arrays.fill(wframe, n, fftSize, 0.0);
+      rfft.forward(wframe, re, im);
+      /* 振幅の2乗で比べても最大のビンは変わらない */
+      int best = 0;
+      double bestPower = re[0] * re[0] + im[0] * im[0];
+      for (int k = 1; k <= maxBin; k++) {
+        final double power = re[k] * re[k] + im[k] * im[k];
+        if (power > bestPower) {
+          best = k;
+          bestPower = power;
+        }
+      }
+      min = Math.min(min, best);
+    }
+    return min;
+  }
+
+  /**
+   * フレームの基本周波数を求める．
+   *
+   * @param frame フレーム
+   * @return 基本周波数 (Hz)
+   */
+  public final double f0(final double[] frame) {
+    return f0Bin(frame) * sampleRate / fftSize;
+  }
+
+}
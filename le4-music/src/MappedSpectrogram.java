@@ -0,0 +1,280 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * スペクトログラムをメモリマップしたファイルに格納するクラスです．
+ * ファイルは {@link #HEADER_BYTES} バイトのヘッダ（識別子・版・フレーム数・ビン数）に続いて，
+ * 各フレームの値を {@code float}（リトルエンディアン）で行優先に並べたものである．
+ * 値はヒープではなくOSのページキャッシュに置かれるため，長い録音でもヒープの使用量は増えず，
+ * フレーム数×ビン数も配列の大きさに制限されない．
+ * 短時間フーリエ変換の結果を書き込み，表示の際には必要な範囲だけを読み出すとよい．
+ * 異なるフレームへの書き込みと読み出しは複数のスレッドから同時に行ってよい．
+ */
+public final class MappedSpectrogram implements Closeable {
+
+  private static final int MAGIC = 0x53504543;
+
+  private static final int VERSION = 1;
+
+  /** ヘッダのバイト数（値の先頭の位置） */
+  public static final int HEADER_BYTES = 64;
+
+  /** 1つのマップの最大バイト数の目安 */
+  private static final long SEGMENT_BYTES = 1L << 30;
+
+  private final FileChannel channel;
+
+  /** フレーム境界に揃えた区間ごとのマップとその {@code float} としての見方 */
+  private final MappedByteBuffer[] maps;
+  private final FloatBuffer[] segments;
+
+  /** 1区間あたりのフレーム数 */
+  private final int segmentFrames;
+
+  private final int frames;
+  private final int bins;
+
+  /** 閉じるときに削除する一時ファイル（無ければ null） */
+  private final File scratch;
+
+  private MappedSpectrogram(final FileChannel channel, final FileChannel.MapMode mode,
+                            final int frames, final int bins, final File scratch)
+    throws IOException {
+    this.channel = channel;
+    this.frames = frames;
+    this.bins = bins;
+    this.scratch = scratch;
+    final long rowBytes = Math.max(1, (long)bins * 4);
+    segmentFrames = (int)Math.max(1, Math.min(Integer.MAX_VALUE, SEGMENT_BYTES / rowBytes));
+    final int n = (int)(((long)frames + segmentFrames - 1) / segmentFrames);
+    maps = new MappedByteBuffer[n];
+    segments = new FloatBuffer[n];
+    for (int s = 0; s < n; s++) {
+      final long first = (long)s * segmentFrames;
+      final long count = Math.min(segmentFrames, frames - first);
+      maps[s] = channel.map(mode, HEADER_BYTES + first * bins * 4, count * bins * 4);
+      segments[s] = maps[s].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+  }
+
+  /**
+   * ファイルを作り（既にあれば作り直し），全ての値が0のスペクトログラムとしてマップする．
+   *
+   * @param file ファイル
+   * @param frames フレーム数
+   * @param bins 1フレームあたりの周波数ビン数
+   * @return スペクトログラム
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public static final MappedSpectrogram create(final File file, final int frames, final int bins)
+    throws IOException {
+    return create(file, frames, bins, null);
+  }
+
+  /**
+   * 一時ファイルを作り，全ての値が0のスペクトログラムとしてマップする．
+   * 一時ファイルは {@link #close()} またはJava仮想マシンの終了時に削除される．
+   *
+   * @param frames フレーム数
+   * @param bins 1フレームあたりの周波数ビン数
+   * @return スペクトログラム
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public static final MappedSpectrogram createTemp(final int frames, final int bins)
+    throws IOException {
+    final File file = File.createTempFile("spectrogram", ".tmp");
+    file.deleteOnExit();
+    try {
+      return create(file, frames, bins, file);
+    } catch (IOException | RuntimeException e) {
+      file.delete();
+      throw e;
+    }
+  }
+
+  private static final MappedSpectrogram create(final File file, final int frames, final int bins,
+                                                final File scratch)
+    throws IOException {
+    if (frames < 0 || bins < 0)
+      throw new IllegalArgumentException(
+        "invalid size: frames = " + frames + ", bins = " + bins
+      );
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING,
+                                                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, frames).putInt(12, bins);
+      while (header.hasRemaining())
+        channel.write(header, header.position());
+      return new MappedSpectrogram(channel, FileChannel.MapMode.READ_WRITE, frames, bins, scratch);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * {@link #create} で作られたファイルを読み取り専用でマップする．
+   *
+   * @param file ファイル
+   * @return スペクトログラム
+   * @throws IOException 入出力例外が発生した場合，またはスペクトログラムのファイルとして解釈できないとき
+   */
+  public static final MappedSpectrogram open(final File file) throws IOException {
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining())
+        if (channel.read(header, header.position()) < 0)
+          throw new IOException("not a spectrogram file: " + file);
+      if (header.getInt(0) != MAGIC)
+        throw new IOException("not a spectrogram file: " + file);
+      final int version = header.getInt(4);
+      if (version != VERSION)
+        throw new IOException("unsupported spectrogram version: " + version);
+      final int frames = header.getInt(8);
+      final int bins = header.getInt(12);
+      if (frames < 0 || bins < 0 || channel.size() < HEADER_BYTES + (long)frames * bins * 4)
+        throw new IOException("broken spectrogram file: " + file);
+      return new MappedSpectrogram(channel, FileChannel.MapMode.READ_ONLY, frames, bins, null);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int frames() {
+    return frames;
+  }
+
+  /**
+   * 1フレームあたりの周波数ビン数を返す．
+   *
+   * @return 周波数ビン数
+   */
+  public final int bins() {
+    return bins;
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を返す．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @return 値
+   */
+  public final double get(final int i, final int j) {
+    return segments[i / segmentFrames].get((i % segmentFrames) * bins + j);
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を設定する．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @param value 値
+   */
+  public final void set(final int i, final int j, final double value) {
+    segments[i / segmentFrames].put((i % segmentFrames) * bins + j, (float)value);
+  }
+
+  /**
+   * i番目のフレームを設定する．
+   *
+   * @param i フレーム番号
+   * @param src 値（長さ {@link #bins()} 以上）
+   */
+  public final void setRow(final int i, final double[] src) {
+    final FloatBuffer segment = segments[i / segmentFrames];
+    final int base = (i % segmentFrames) * bins;
+    for (int j = 0; j < bins; j++)
+      segment.put(base + j, (float)src[j]);
+  }
+
+  /**
+   * i番目のフレームを書き込む．
+   *
+   * @param i フレーム番号
+   * @param dst 出力先（長さ {@link #bins()} 以上）
+   * @return 出力先
+   */
+  public final double[] row(final int i, final double[] dst) {
+    final FloatBuffer segment = segments[i / segmentFrames];
+    final int base = (i % segmentFrames) * bins;
+    for (int j = 0; j < bins; j++)
+      dst[j] = segment.get(base + j);
+    return dst;
+  }
+
+  /**
+   * j番目の周波数ビンの全フレームの値を書き込む．
+   *
+   * @param j 周波数ビン番号
+   * @param dst 出力先（長さ {@link #frames()} 以上）
+   * @return 出力先
+   */
+  public final double[] column(final int j, final double[] dst) {
+    for (int i = 0; i < frames; i++)
+      dst[i] = get(i, j);
+    return dst;
+  }
+
+  /**
+   * フレームの範囲 [fromFrame, toFrame) と周波数ビンの範囲 [fromBin, toBin) の値を
+   * 行優先で書き込む．
+   *
+   * @param fromFrame 範囲の先頭のフレーム
+   * @param toFrame 範囲の末尾の次のフレーム
+   * @param fromBin 範囲の先頭の周波数ビン
+   * @param toBin 範囲の末尾の次の周波数ビン
+   * @param dst 出力先（長さ (toFrame - fromFrame) × (toBin - fromBin) 以上）
+   * @return 出力先
+   */
+  public final double[] slice(final int fromFrame, final int toFrame,
+                              final int fromBin, final int toBin, final double[] dst) {
+    final int width = toBin - fromBin;
+    for (int i = fromFrame; i < toFrame; i++) {
+      final FloatBuffer segment = segments[i / segmentFrames];
+      final int base = (i % segmentFrames) * bins + fromBin;
+      final int offset = (i - fromFrame) * width;
+      for (int j = 0; j < width; j++)
+        dst[offset + j] = segment.get(base + j);
+    }
+    return dst;
+  }
+
+  /**
+   * 書き込んだ値をファイルに反映させる．読み取り専用でマップしたときは何もしない．
+   */
+  public final void force() {
+    for (final MappedByteBuffer map : maps)
+      if (!map.isReadOnly())
+        map.force();
+  }
+
+  /**
+   * ファイルを閉じ，一時ファイルなら削除する．閉じた後は値を読み書きしないこと．
+   *
+   * @throws IOException 入出力例外が発生した場合
+   */
+  @Override
+  public final void close() throws IOException {
+    channel.close();
+    if (scratch != null)
+      scratch.delete();
+  }
+
+}
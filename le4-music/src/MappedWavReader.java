@@ -0,0 +1,263 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * WAVファイルをメモリマップして任意の位置のフレームを読み出すクラスです．
+ * RIFFヘッダは自前で解析し，データ部を {@link FileChannel#map} で読み取り専用にマップする．
+ * 波形全体を {@code double[]} に展開しないため，長い録音でもヒープは読み出す範囲の分しか使わず，
+ * フレーム数も {@code int} の範囲に制限されない．
+ * デコードは {@link WaveformDecoder} によって行い，対応する形式も同じである．
+ * 複数のスレッドから同時に読み出してよい．
+ */
+public final class MappedWavReader implements Closeable {
+
+  /** 1つのマップの最大バイト数の目安 */
+  private static final long SEGMENT_BYTES = 1L << 30;
+
+  private final FileChannel channel;
+
+  /** フレーム境界に揃えた区間ごとのマップ */
+  private final MappedByteBuffer[] segments;
+
+  /** 1区間あたりのフレーム数 */
+  private final long segmentFrames;
+
+  private final AudioFormat format;
+  private final WaveformDecoder decoder;
+  private final long frames;
+
+  /** 読み出し用のバイト列（スレッドごと） */
+  private final ThreadLocal<byte[]> block;
+
+  /**
+   * WAVファイルを開く．
+   *
+   * @param file WAVファイル
+   * @throws IOException 入出力例外が発生した場合
+   * @throws UnsupportedAudioFileException WAVファイルとして解釈できないか，対応していない形式のとき
+   */
+  public MappedWavReader(final File file)
+    throws IOException, UnsupportedAudioFileException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final long size = channel.size();
+      final ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      readAt(header, 0);
+      if (header.getInt(0) != 0x46464952 /* "RIFF" */ || header.getInt(8) != 0x45564157 /* "WAVE" */)
+        throw new UnsupportedAudioFileException("not a RIFF/WAVE file: " + file);
+
+      /* チャンクを順に読み，fmt と data を探す */
+      final ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      ByteBuffer fmt = null;
+      long dataOffset = -1;
+      long dataBytes = 0;
+      for (long pos = 12; pos + 8 <= size; ) {
+        chunk.clear();
+        readAt(chunk, pos);
+        final int id = chunk.getInt(0);
+        final long length = chunk.getInt(4) & 0xffffffffL;
+        if (id == 0x20746d66 /* "fmt " */) {
+          fmt = ByteBuffer.allocate((int)Math.min(length, 64)).order(ByteOrder.LITTLE_ENDIAN);
+          readAt(fmt, pos + 8);
+        } else if (id == 0x61746164 /* "data" */) {
+          dataOffset = pos + 8;
+          /* 書き込み途中などでサイズが不正な場合はファイル末尾までとする */
+          dataBytes = Math.min(length, size - dataOffset);
+          break;
+        }
+        pos += 8 + length + (length & 1);
+      }
+      if (fmt == null || dataOffset < 0)
+        throw new UnsupportedAudioFileException("fmt or data chunk not found: " + file);
+
+      format = parseFormat(fmt);
+      decoder = new WaveformDecoder(format);
+      final int frameBytes = decoder.frameBytes();
+      frames = dataBytes / frameBytes;
+
+      /* 区間の境界がフレームの途中にならないようにマップする */
+      segmentFrames = Math.max(1, SEGMENT_BYTES / frameBytes);
+      final int n = (int)((frames + segmentFrames - 1) / segmentFrames);
+      segments = new MappedByteBuffer[n];
+      for (int i = 0; i < n; i++) {
+        final long first = i * segmentFrames;
+        final long count = Math.min(segmentFrames, frames - first);
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                  dataOffset + first * frameBytes, count * frameBytes);
+      }
+      block = ThreadLocal.withInitial(
+        () -> new byte[Math.max(1, WaveformDecoder.BLOCK_SIZE / frameBytes) * frameBytes]);
+    } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private final void readAt(final ByteBuffer dst, long pos) throws IOException {
+    while (dst.hasRemaining()) {
+      final int n = channel.read(dst, pos);
+      if (n < 0)
+        throw new IOException("unexpected end of file");
+      pos += n;
+    }
+  }
+
+  private static final AudioFormat parseFormat(final ByteBuffer fmt)
+    throws UnsupportedAudioFileException {
+    if (fmt.capacity() < 16)
+      throw new UnsupportedAudioFileException("fmt chunk too short");
+    int tag = fmt.getShort(0) & 0xffff;
+    final int channels = fmt.getShort(2) & 0xffff;
+    final float sampleRate = fmt.getInt(4);
+    final int blockAlign = fmt.getShort(12) & 0xffff;
+    int bits = fmt.getShort(14) & 0xffff;
+    /* WAVE_FORMAT_EXTENSIBLE の場合はサブフォーマットの先頭2バイトが形式を表す */
+    /* 有効ビット数は器のビット数（32bitの器に入れた24bitなど）より小さいことがある */
+    if (tag == 0xfffe && fmt.capacity() >= 26) {
+      tag = fmt.getShort(24) & 0xffff;
+      final int validBits = fmt.getShort(18) & 0xffff;
+      if (validBits > 0 && validBits < bits)
+        bits = (validBits + 7) & ~7;
+    }
+    if (channels == 0 || blockAlign < (bits >> 3) * channels)
+      throw new UnsupportedAudioFileException(
+        "invalid block alignment: blockAlign = " + blockAlign + ", bits = " + bits + ", channels = " + channels);
+    final AudioFormat.Encoding encoding;
+    if (tag == 1)
+      encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+    else if (tag == 3)
+      encoding = AudioFormat.Encoding.PCM_FLOAT;
+    else
+      throw new UnsupportedAudioFileException("unsupported format tag: " + tag);
+    /* フレームのバイト数はブロックアラインに従う（サンプルの後ろに詰め物がある形式のため） */
+    return new AudioFormat(encoding, sampleRate, bits, channels, blockAlign, sampleRate, false);
+  }
+
+  /**
+   * オーディオ形式を返す．
+   *
+   * @return オーディオ形式
+   */
+  public final AudioFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * サンプリング周波数を返す．
+   *
+   * @return サンプリング周波数 (Hz)
+   */
+  public final double getSampleRate() {
+    return format.getSampleRate();
+  }
+
+  /**
+   * チャネル数を返す．
+   *
+   * @return チャネル数
+   */
+  public final int getChannels() {
+    return format.getChannels();
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final long getFrameLength() {
+    return frames;
+  }
+
+  /**
+   * 指定した位置から全チャネルの平均波形を読み出す．
+   * ファイル末尾を越える分は書き込まれない．
+   *
+   * @param offset 読み出し開始位置（フレーム番号）
+   * @param dst 出力先
+   * @return 読み出したフレーム数．開始位置がファイル末尾以降なら0
+   */
+  public final int readFrames(final long offset, final double[] dst) {
+    return read(offset, dst, 0, dst.length, null);
+  }
+
+  /**
+   * 指定した位置から全チャネルの平均波形を読み出し，出力先の指定した範囲に書き込む．
+   * ファイル末尾を越える分は書き込まれない．
+   *
+   * @param offset 読み出し開始位置（フレーム番号）
+   * @param dst 出力先
+   * @param off 出力先の書き込み開始位置
+   * @param len 読み出す最大のフレーム数
+   * @return 読み出したフレーム数．開始位置がファイル末尾以降なら0
+   */
+  public final int readFrames(final long offset, final double[] dst, final int off, final int len) {
+    return read(offset, dst, off, len, null);
+  }
+
+  /**
+   * 指定した位置からチャネルごとの波形を読み出す．
+   * ファイル末尾を越える分は書き込まれない．
+   *
+   * @param offset 読み出し開始位置（フレーム番号）
+   * @param dst チャネルごとの出力先（長さは全て等しいこと）
+   * @return 読み出したフレーム数．開始位置がファイル末尾以降なら0
+   */
+  public final int readFrames(final long offset, final double[][] dst) {
+    return read(offset, null, 0, dst[0].length, dst);
+  }
+
+  private final int read(final long offset, final double[] mono, final int off, final int length,
+                         final double[][] multi) {
+    if (offset < 0)
+      throw new IllegalArgumentException("offset must not be negative: " + offset);
+    final int total = (int)Math.max(0, Math.min(length, frames - offset));
+    final int frameBytes = decoder.frameBytes();
+    final byte[] block = this.block.get();
+    final int blockFrames = block.length / frameBytes;
+    for (int done = 0; done < total; ) {
+      final long frame = offset + done;
+      final int segment = (int)(frame / segmentFrames);
+      final long inSegment = frame - segment * segmentFrames;
+      /* 区間の終わりとブロックの大きさで1回の読み出しを区切る */
+      final int n = (int)Math.min(Math.min(total - done, blockFrames), segmentFrames - inSegment);
+      final ByteBuffer src = segments[segment].duplicate();
+      src.position((int)(inSegment * frameBytes));
+      src.get(block, 0, n * frameBytes);
+      if (mono != null)
+        decoder.decodeMonaural(block, 0, n, mono, off + done);
+      else
+        decoder.decode(block, 0, n, multi, off + done);
+      done += n;
+    }
+    return total;
+  }
+
+  /**
+   * 波形全体の全チャネルの平均を読み出す．
+   *
+   * @return 全チャネルの平均波形
+   * @throws IllegalStateException フレーム数が配列に収まらないとき
+   */
+  public final double[] readWaveformMonaural() {
+    if (frames > Integer.MAX_VALUE)
+      throw new IllegalStateException("too many frames for an array: " + frames);
+    final double[] waveform = new double[(int)frames];
+    readFrames(0, waveform);
+    return waveform;
+  }
+
+  @Override
+  public final void close() throws IOException {
+    channel.close();
+  }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * ベクトルの次元ごとの平均と分散を逐次的に求めるクラスです．
+ * Welford の方法によりサンプルを1つずつ加えながら平均と偏差平方和を更新するため，
+ * サンプルを保持せず，使用するメモリは次元数にのみ比例する．
+ * 別々に求めた結果を {@link #merge} でまとめることもできる（Chan らの方法）．
+ */
+public final class MeanVariance {
+
+  private final double[] mean;
+
+  /** 偏差平方和 */
+  private final double[] m2;
+
+  private long count;
+
+  /**
+   * 空の集計を作る．
+   *
+   * @param dimension 次元数
+   */
+  public MeanVariance(final int dimension) {
+    if (dimension <= 0)
+      throw new IllegalArgumentException("dimension must be positive: " + dimension);
+    this.mean = new double[dimension];
+    this.m2 = new double[dimension];
+  }
+
+  /**
+   * 次元数を返す．
+   *
+   * @return 次元数
+   */
+  public final int dimension() {
+    return mean.length;
+  }
+
+  /**
+   * 加えたサンプル数を返す．
+   *
+   * @return サンプル数
+   */
+  public final long count() {
+    return count;
+  }
+
+  /**
+   * サンプルを1つ加える．
+   *
+   * @param x サンプル（長さ {@link #dimension()} 以上）
+   */
+  public final void add(final double[] x) {
+    add(x, 0);
+  }
+
+  /**
+   * 配列の指定した位置から始まるサンプルを1つ加える．
+   *
+   * @param x サンプルを含む配列
+   * @param offset サンプルの開始位置
+   */
+  public final void add(final double[] x, final int offset) {
+    count++;
+    final double r = 1.0 / count;
+    for (int d = 0; d < mean.length; d++) {
+      final double delta = x[offset + d] - mean[d];
+      mean[d] += delta * r;
+      m2[d] += delta * (x[offset + d] - mean[d]);
+    }
+  }
+
+  /**
+   * 別の集計の結果をこの集計に加える．
+   *
+   * @param other 別の集計（次元数が等しいこと）
+   */
+  public final void merge(final MeanVariance other) {
+    if (other.mean.length != mean.length)
+      throw new IllegalArgumentException(
+        "dimensions differ: " + mean.length + " != " + other.mean.length
+      );
+    if (other.count == 0)
+      return;
+    final long n = count + other.count;
+    final double a = (double)count / n;
+    final double b = (double)other.count / n;
+    for (int d = 0; d < mean.length; d++) {
+      final double delta = other.mean[d] - mean[d];
+      m2[d] += other.m2[d] + delta * delta * count * b;
+      mean[d] = a * mean[d] + b * other.mean[d];
+    }
+    count = n;
+  }
+
+  /**
+   * 平均を返す．
+   *
+   * @param dst 出力先（長さ {@link #dimension()} 以上）
+   * @return 出力先
+   */
+  public final double[] mean(final double[] dst) {
+    System.arraycopy(mean, 0, dst, 0, mean.length);
+    return dst;
+  }
+
+  /**
+   * 分散（偏差平方和をサンプル数で割ったもの，最尤推定値）を返す．
+   * サンプルが無いときは0とする．
+   *
+   * @param dst 出力先（長さ {@link #dimension()} 以上）
+   * @return 出力先
+   */
+  public final double[] variance(final double[] dst) {
+    for (int d = 0; d < mean.length; d++)
+      dst[d] = count > 0 ? m2[d] / count : 0.0;
+    return dst;
+  }
+
+}
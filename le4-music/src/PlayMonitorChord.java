@@ -0,0 +1,208 @@
+import java.lang.invoke.MethodHandles;
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sound.sampled.AudioSystem;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.chart.BarChart;
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Label;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.text.Font;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.HelpFormatter;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+import jp.ac.kyoto_u.kuis.le4music.AudioFrameProvider;
+import jp.ac.kyoto_u.kuis.le4music.Player;
+import jp.ac.kyoto_u.kuis.le4music.Recorder;
+import static jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.verbose;
+
+import java.io.IOException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.LineUnavailableException;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * 再生中または録音中の音の和音をリアルタイムに認識して表示するアプリケーションです．
+ * フレームごとの解析（FFT・クロマベクトル・24種類の和音らしさ）は専用のスレッドで行い，
+ * 最新の結果だけをJavaFXのスレッドに渡して表示する．
+ */
+public final class PlayMonitorChord extends Application {
+
+  private static final Options options = new Options();
+  private static final String helpMessage = MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] [WAVFILE]";
+
+  /** 音名 */
+  private static final String[] PITCH_CLASSES =
+    { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
+
+  static {
+    /* コマンドラインオプション定義 */
+    options.addOption("h", "help", false, "display this help and exit");
+    options.addOption("v", "verbose", false, "Verbose output (prints analysis time per frame)");
+    options.addOption("m", "mixer", true, "Index of the Mixer object that supplies a line. "
+        + "To check the proper index, use CheckAudioSystem");
+    options.addOption("r", "record", false, "Analyze the microphone input instead of WAVFILE");
+    options.addOption(null, "rate", true, "Sampling rate of recording [Hz]");
+    options.addOption("l", "loop", false, "Loop playback");
+    options.addOption("f", "frame", true,
+        "Frame duration [seconds] " + "(Default: " + Le4MusicUtils.frameDuration + ")");
+    options.addOption("i", "interval", true,
+        "Frame notification interval [seconds] " + "(Default: " + Le4MusicUtils.frameInterval + ")");
+    options.addOption("b", "buffer", true, "Duration of line buffer [seconds]");
+    options.addOption("H", "hmm", false, "Smooth the chord with a fixed-lag HMM decoder");
+    options.addOption(null, "lag", true,
+        "Decoding lag of --hmm [frames] (Default: " + ChordHMM.defaultLag + ")");
+  }
+
+  @Override /* Application */
+  public final void start(final Stage primaryStage)
+      throws IOException, UnsupportedAudioFileException, LineUnavailableException, ParseException {
+    /* コマンドライン引数処理 */
+    final String[] args = getParameters().getRaw().toArray(new String[0]);
+    final CommandLine cmd = new DefaultParser().parse(options, args);
+    if (cmd.hasOption("help")) {
+      new HelpFormatter().printHelp(helpMessage, options);
+      Platform.exit();
+      return;
+    }
+    verbose = cmd.hasOption("verbose");
+
+    final String[] pargs = cmd.getArgs();
+    if (!cmd.hasOption("record") && pargs.length < 1) {
+      System.out.println("WAVFILE is not given.");
+      new HelpFormatter().printHelp(helpMessage, options);
+      Platform.exit();
+      return;
+    }
+
+    final double interval = Optional.ofNullable(cmd.getOptionValue("interval")).map(Double::parseDouble)
+        .orElse(Le4MusicUtils.frameInterval);
+    final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+        .orElse(Le4MusicUtils.frameDuration);
+
+    /* Player または Recorder を作成 */
+    final AudioFrameProvider provider;
+    if (cmd.hasOption("record")) {
+      final Recorder.Builder builder = Recorder.builder();
+      Optional.ofNullable(cmd.getOptionValue("rate")).map(Float::parseFloat).ifPresent(builder::sampleRate);
+      Optional.ofNullable(cmd.getOptionValue("mixer")).map(Integer::parseInt)
+          .map(index -> AudioSystem.getMixerInfo()[index]).ifPresent(builder::mixer);
+      builder.frameDuration(frameDuration);
+      builder.interval(interval);
+      builder.daemon();
+      provider = builder.build();
+    } else {
+      final Player.Builder builder = Player.builder(new File(pargs[0]));
+      Optional.ofNullable(cmd.getOptionValue("mixer")).map(Integer::parseInt)
+          .map(index -> AudioSystem.getMixerInfo()[index]).ifPresent(builder::mixer);
+      if (cmd.hasOption("loop"))
+        builder.loop();
+      Optional.ofNullable(cmd.getOptionValue("buffer")).map(Double::parseDouble).ifPresent(builder::bufferDuration);
+      builder.frameDuration(frameDuration);
+      builder.interval(interval);
+      builder.daemon();
+      provider = builder.build();
+    }
+
+    /* データ処理スレッド */
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /* 和音名の表示 */
+    final Label chordLabel = new Label("-");
+    chordLabel.setFont(new Font(48));
+    BorderPane.setAlignment(chordLabel, Pos.CENTER);
+
+    /* クロマベクトルの表示 */
+    final CategoryAxis xAxis = new CategoryAxis();
+    xAxis.setLabel("Pitch class");
+    xAxis.setAnimated(false);
+    final NumberAxis yAxis = new NumberAxis();
+    yAxis.setLabel("Amplitude");
+    yAxis.setAnimated(false);
+    final BarChart<String, Number> chart = new BarChart<>(xAxis, yAxis);
+    chart.setTitle("Chroma");
+    chart.setAnimated(false);
+    chart.setLegendVisible(false);
+    final XYChart.Series<String, Number> series = new XYChart.Series<>();
+    for (final String name : PITCH_CLASSES)
+      series.getData().add(new XYChart.Data<>(name, 0.0));
+    chart.getData().add(series);
+
+    /* グラフ描画 */
+    final BorderPane root = new BorderPane(chart);
+    root.setTop(chordLabel);
+    final Scene scene = new Scene(root, 800, 600);
+    scene.getStylesheets().add("le4music.css");
+    primaryStage.setScene(scene);
+    primaryStage.setTitle(getClass().getName());
+    /* ウインドウを閉じたときに他スレッドも停止させる */
+    primaryStage.setOnCloseRequest(req -> executor.shutdown());
+    primaryStage.show();
+    Platform.setImplicitExit(true);
+
+    /* 解析器（データ処理スレッドでのみ使う） */
+    final ChordTracker tracker = new ChordTracker(provider.getSampleRate(), provider.getFrameSize());
+    /* HMMによる平滑化（表示は lag フレーム遅れる） */
+    final ChordHMM hmm = new ChordHMM(ChordHMM.defaultStayProbability, ChordHMM.defaultSharpness);
+    final ChordHMM.Decoder decoder = cmd.hasOption("hmm")
+        ? hmm.decoder(Optional.ofNullable(cmd.getOptionValue("lag")).map(Integer::parseInt).orElse(ChordHMM.defaultLag))
+        : null;
+    final double[] emission = new double[ChordHMM.STATES];
+
+    /* 解析結果の受け渡し（表示は最新の結果だけを反映する） */
+    final double[] shownChroma = new double[12];
+    final int[] shownChord = { 0 };
+    final CoalescingUpdate updateView = new CoalescingUpdate(() -> {
+      final int chord;
+      final double[] chroma = new double[12];
+      synchronized (shownChroma) {
+        System.arraycopy(shownChroma, 0, chroma, 0, 12);
+        chord = shownChord[0];
+      }
+      chordLabel.setText(Chroma.CHORD_NAMES[chord]);
+      for (int k = 0; k < 12; k++)
+        series.getData().get(k).setYValue(chroma[k]);
+    });
+
+    final long[] stats = { 0, 0 }; // 解析したフレーム数と合計時間 (ns)
+    final CoalescingFrameListener listener =
+      new CoalescingFrameListener(provider.getFrameSize(), executor, (frame, position) -> {
+        final long t0 = System.nanoTime();
+        int chord = tracker.update(frame);
+        if (decoder != null) {
+          final int c = decoder.push(hmm.emission(tracker.scores(), emission, 0), 0);
+          chord = c >= 0 ? c : shownChord[0];
+        }
+        synchronized (shownChroma) {
+          System.arraycopy(tracker.chroma(), 0, shownChroma, 0, 12);
+          shownChord[0] = chord;
+        }
+        updateView.request();
+        if (verbose) {
+          stats[0]++;
+          stats[1] += System.nanoTime() - t0;
+          if (stats[0] % 100 == 0)
+            System.out.printf("%s: %.3f ms/frame (interval %.1f ms)%n",
+                              Chroma.CHORD_NAMES[chord], stats[1] * 1e-6 / stats[0], interval * 1e3);
+        }
+      });
+    provider.addAudioFrameListener(listener);
+
+    /* 再生・録音開始 */
+    Platform.runLater(provider::start);
+  }
+
+}
@@ -1,6 +1,5 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.stream.IntStream;
 import java.util.concurrent.ExecutorService;
@@ -19,7 +18,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -104,7 +102,7 @@ public final class PlayMonitorSpectrogram extends Application {
     final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     /* 窓関数とFFTのサンプル数 */
-    final int fftSize = 1 << Le4MusicUtils.nextPow2(player.getFrameSize());
+    final int fftSize = player.getFrameSize();
     final int fftSize2 = (fftSize >> 1) + 1;
 
     /* 窓関数を求め，それを正規化する */
@@ -153,13 +151,22 @@ public final class PlayMonitorSpectrogram extends Application {
     primaryStage.show();
     Platform.setImplicitExit(true);
 
+    /* FFTと作業用配列（データ処理スレッドでのみ使うので使い回す） */
+    final RealFFT rfft = RealFFT.of(fftSize);
+    final double[] wframe = new double[fftSize];
+    final double[] re = new double[fftSize2];
+    final double[] im = new double[fftSize2];
+    final double[] specLog = new double[fftSize2];
+
     player.addAudioFrameListener((frame, position) -> executor.execute(() -> {
-      final double[] wframe = MathArrays.ebeMultiply(frame, window);
-      final Complex[] spectrum = Le4MusicUtils.rfft(Arrays.copyOf(wframe, fftSize));
+      for (int i = 0; i < window.length; i++)
+        wframe[i] = frame[i] * window[i];
+      rfft.forward(wframe, re, im);
+      RealFFT.logAbs(re, im, specLog);
       final double posInSec = position / player.getSampleRate();
 
       /* スペクトログラム描画 */
-      chart.addSpectrum(spectrum);
+      chart.addSpecLog(specLog);
 
       /* 軸を更新 */
       xAxis.setUpperBound(posInSec);
@@ -1,8 +1,6 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Optional;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
@@ -12,11 +10,7 @@ import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
-import javafx.scene.chart.XYChart;
-import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
-import javafx.collections.ObservableList;
-import javafx.collections.FXCollections;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -107,16 +101,6 @@ public final class PlayMonitorWaveform extends Application {
     builder.daemon();
     final Player player = builder.build();
 
-    /* データ系列を作成 */
-    final ObservableList<XYChart.Data<Number, Number>> data =
-      IntStream.range(0, player.getFrameSize())
-        .mapToObj(i -> new XYChart.Data<Number, Number>(i / player.getSampleRate(), 0.0))
-        .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-    /* データ系列に名前をつける */
-    final XYChart.Series<Number, Number> series =
-      new XYChart.Series<>("Waveform", data);
-
     /* 軸を作成 */
     final NumberAxis xAxis = new NumberAxis(
       /* axisLabel  = */ "Time (seconds)",
@@ -135,13 +119,12 @@ public final class PlayMonitorWaveform extends Application {
       /* tickUnit   = */ Le4MusicUtils.autoTickUnit(ampBounds * 2.0)
     );
 
-    /* チャートを作成 */
-    final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+    /* チャートを作成（波形はデータ系列を作らずに画素単位で間引いて描画する） */
+    final LineChartWithWaveform chart = new LineChartWithWaveform(xAxis, yAxis);
     chart.setTitle("Waveform");
     chart.setCreateSymbols(false);
     chart.setLegendVisible(false);
     chart.setAnimated(false);
-    chart.getData().add(series);
 
     /* 描画ウインドウ作成 */
     final Scene scene  = new Scene(chart, 800, 600);
@@ -150,15 +133,9 @@ public final class PlayMonitorWaveform extends Application {
     primaryStage.setTitle(getClass().getName());
     primaryStage.show();
 
-    player.addAudioFrameListener((frame, position) -> Platform.runLater(() -> {
-      /* 最新フレームの波形を描画 */
-      IntStream.range(0, player.getFrameSize()).forEach(i -> {
-        data.get(i).setXValue((i + position) / player.getSampleRate());
-        data.get(i).setYValue(frame[i]);
-      });
-      xAxis.setLowerBound(position / player.getSampleRate());
-      xAxis.setUpperBound((position + player.getFrameSize()) / player.getSampleRate());
-    }));
+    /* 最新フレームの波形を描画（時間軸もフレームの範囲に合わせる） */
+    player.addAudioFrameListener((frame, position) -> chart.offerFrame(
+      frame, position / player.getSampleRate(), player.getSampleRate()));
 
     Platform.runLater(player::start);
   }
@@ -1,8 +1,6 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
@@ -13,6 +11,7 @@ import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
+import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.image.WritableImage;
 import javafx.embed.swing.SwingFXUtils;
@@ -22,7 +21,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -45,6 +43,12 @@ public final class PlotSpectrogramCLI extends Application {
         options.addOption("f", "frame", true,
                 "Duration of frame [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
         options.addOption("s", "shift", true, "Duration of shift [seconds] (Default: frame/8)");
+        options.addOption("S", "stream", false, "Memory-map the WAV file and analyze it "
+                + "block by block with bounded memory");
+        options.addOption("t", "tiled", false, "Analyze only the visible tiles on demand "
+                + "(scroll to zoom and drag to pan the time axis)");
+        options.addOption("M", "mapped", false, "With --tiled, analyze the whole file into a memory-mapped "
+                + "scratch file first and read the tiles from it (implied by --stream --tiled)");
     }
 
     @Override
@@ -68,85 +72,140 @@ public final class PlotSpectrogramCLI extends Application {
 
         final File wavFile = new File(pargs[0]);
 
-        /* WAVファイル読み込み */
-        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = stream.getFormat();
-        final double sampleRate = format.getSampleRate();
-        final double nyquist = sampleRate * 0.5;
-        stream.close();
-
-        /* 窓関数とFFTのサンプル数 */
-        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration);
-        final int frameSize = (int) Math.round(frameDuration * sampleRate);
-        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
-        final int fftSize2 = (fftSize >> 1) + 1;
-
-        /* シフトのサンプル数 */
-        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration / 8);
-        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-
-        /* 窓関数を求め， それを正規化する */
-        final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
-                1.0);
-
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
-
-        /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-        final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-
-        /* 参考： 各フーリエ変換係数に対応する周波数 */
-        final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize).toArray();
-
-        /* X 軸を作成 */
-        final double duration = (specLog.length - 1) * shiftDuration;
-
-        final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
-                /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
-        xAxis.setAnimated(false);
-
-        /* Y 軸を作成 */
-        final NumberAxis yAxis = new NumberAxis(/* axisLabel = */ "Frequency (Hz)", /* lowerBound = */ 0.0,
-                /* upperBound = */ 300, /* tickUnit = */ Le4MusicUtils.autoTickUnit(300));
-        yAxis.setAnimated(false);
-
-        /* チャートを作成 */
-        final LineChartWithSpectrogram<Number, Number> chart = new LineChartWithSpectrogram<>(xAxis, yAxis);
-        chart.setParameters(specLog.length, fftSize2, nyquist);
-        chart.setTitle("Spectrogram");
-        Arrays.stream(specLog).forEach(chart::addSpecLog);
-        chart.setCreateSymbols(false);
-        chart.setLegendVisible(false);
-
-        /* グラフ描画 */
-        final Scene scene = new Scene(chart, 800, 600);
-        scene.getStylesheets().add("src/le4music.css");
-
-        /* ウインドウ表示 */
-        primaryStage.setScene(scene);
-        primaryStage.setTitle(getClass().getName());
-        primaryStage.show();
-
-        /* チャートを画像ファイルへ出力 */
-        Platform.runLater(() -> {
-            final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
-                    Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
-            final WritableImage image = scene.snapshot(null);
-            try {
-                ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
-                        new File(name_ext[0] + "." + name_ext[1]));
-            } catch (IOException e) {
-                e.printStackTrace();
+        /* WAVファイル読み込み（ストリーミング時はWAVファイルをメモリマップし，波形全体を読み込まない） */
+        final boolean streaming = cmd.hasOption("stream");
+        try (MappedWavReader reader = streaming ? new MappedWavReader(wavFile) : null;
+                AudioInputStream stream = streaming ? null : AudioSystem.getAudioInputStream(wavFile)) {
+            final double[] waveform = streaming ? null : WaveformDecoder.readWaveformMonaural(stream);
+            final AudioFormat format = streaming ? reader.getFormat() : stream.getFormat();
+            final double sampleRate = format.getSampleRate();
+            final double nyquist = sampleRate * 0.5;
+            final long samples = streaming ? reader.getFrameLength() : stream.getFrameLength();
+
+            /* 窓関数とFFTのサンプル数 */
+            final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                    .orElse(Le4MusicUtils.frameDuration);
+            final int frameSize = (int) Math.round(frameDuration * sampleRate);
+            final int fftSize = frameSize;
+            final int fftSize2 = (fftSize >> 1) + 1;
+
+            /* シフトのサンプル数 */
+            final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                    .orElse(Le4MusicUtils.frameDuration / 8);
+            final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
+
+            /* 窓関数を求め， それを正規化する */
+            final double[] window = MathArrays.normalizeArray(Le4MusicUtils.hanning(frameSize), 1.0);
+
+            /* フレーム数 */
+            final int frames = (int) (samples / shiftSize);
+
+            /* 参考： フレーム数と各フレーム先頭位置の時刻 */
+            final double[] times = IntStream.range(0, frames).mapToDouble(i -> i * shiftDuration).toArray();
+
+            /* 参考： 各フーリエ変換係数に対応する周波数 */
+            final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize).toArray();
+
+            /* X 軸を作成 */
+            final double duration = (frames - 1) * shiftDuration;
+
+            final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
+                    /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
+            xAxis.setAnimated(false);
+
+            /* Y 軸を作成 */
+            final NumberAxis yAxis = new NumberAxis(/* axisLabel = */ "Frequency (Hz)", /* lowerBound = */ 0.0,
+                    /* upperBound = */ 300, /* tickUnit = */ Le4MusicUtils.autoTickUnit(300));
+            yAxis.setAnimated(false);
+
+            /* チャートを作成 */
+            final LineChart<Number, Number> chart;
+            /* ストリーミング時は波形全体を持たないので，タイル表示には必ずメモリマップしたファイルを用いる */
+            final boolean tiled = cmd.hasOption("tiled");
+            final boolean mapped = cmd.hasOption("mapped") || (tiled && streaming);
+            if (tiled && mapped) {
+                /* 対数振幅スペクトログラムをメモリマップした一時ファイルに求め，表示範囲のタイルだけを読み出す */
+                final MappedSpectrogram store;
+                if (streaming) {
+                    final StreamingFrames streamingFrames = new StreamingFrames(reader, frameSize, shiftSize);
+                    store = MappedSpectrogram.createTemp(streamingFrames.count(), fftSize2);
+                    final double[] row = new double[fftSize2];
+                    try {
+                        streamingFrames.forEachSpectrum(window, (i, re, im) -> {
+                            RealFFT.logAbs(re, im, row);
+                            store.setRow(i, row);
+                        });
+                    } catch (IOException | RuntimeException e) {
+                        store.close();
+                        throw e;
+                    }
+                } else {
+                    store = new STFT(window, shiftSize).logMagnitude(waveform, (File) null);
+                }
+                /* ウインドウを閉じたら一時ファイルを閉じて削除する */
+                primaryStage.setOnCloseRequest(req -> {
+                    try {
+                        store.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                });
+                final SpectrogramTileCache tiles = new SpectrogramTileCache(store,
+                        Le4MusicUtils.spectrumAmplitudeLowerBound, Le4MusicUtils.spectrumAmplitudeUpperBound,
+                        SpectrogramTileCache.defaultMaxTiles);
+                chart = new LineChartWithTiledSpectrogram(xAxis, yAxis, tiles, shiftDuration, nyquist);
+            } else if (tiled) {
+                /* 表示範囲のタイルだけを必要になったときに計算する */
+                final SpectrogramTileCache tiles = new SpectrogramTileCache(waveform, window, shiftSize,
+                        Le4MusicUtils.spectrumAmplitudeLowerBound, Le4MusicUtils.spectrumAmplitudeUpperBound,
+                        SpectrogramTileCache.defaultMaxTiles);
+                chart = new LineChartWithTiledSpectrogram(xAxis, yAxis, tiles, shiftDuration, nyquist);
+            } else {
+                final LineChartWithSpectrogram<Number, Number> specChart = new LineChartWithSpectrogram<>(xAxis, yAxis);
+                specChart.setParameters(frames, fftSize2, nyquist);
+                final double[] row = new double[fftSize2];
+                if (streaming) {
+                    /* 短時間フーリエ変換本体（ブロックごとに読み込みながら1フレームずつチャートに追加する） */
+                    new StreamingFrames(reader, frameSize, shiftSize).forEachSpectrum(window, (i, re, im) -> {
+                        RealFFT.logAbs(re, im, row);
+                        specChart.addSpecLog(row);
+                    });
+                } else {
+                    /* 短時間フーリエ変換本体（フレーム長をそのまま変換長とし，並列に計算する） */
+                    /* 表示範囲の外の値は色が変わらないので，表示範囲だけを8ビットに量子化して持つ */
+                    final QuantizedSpectrogram specLog = new STFT(window, shiftSize).logMagnitude(waveform,
+                            Le4MusicUtils.spectrumAmplitudeLowerBound, Le4MusicUtils.spectrumAmplitudeUpperBound, 8);
+                    for (int i = 0; i < specLog.frames(); i++)
+                        specChart.addSpecLog(specLog.row(i, row));
+                }
+                chart = specChart;
             }
-        });
+            chart.setTitle("Spectrogram");
+            chart.setCreateSymbols(false);
+            chart.setLegendVisible(false);
+
+            /* グラフ描画 */
+            final Scene scene = new Scene(chart, 800, 600);
+            scene.getStylesheets().add("src/le4music.css");
+
+            /* ウインドウ表示 */
+            primaryStage.setScene(scene);
+            primaryStage.setTitle(getClass().getName());
+            primaryStage.show();
+
+            /* チャートを画像ファイルへ出力 */
+            Platform.runLater(() -> {
+                final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
+                        Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
+                final WritableImage image = scene.snapshot(null);
+                try {
+                    ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
+                            new File(name_ext[0] + "." + name_ext[1]));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
     }
 
 }
\ No newline at end of file
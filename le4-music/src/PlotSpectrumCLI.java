@@ -82,7 +82,7 @@ public final class PlotSpectrumCLI extends Application {
 
         /* W A V ファイル読み込み*/
         final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
+        final double[] waveform = WaveformDecoder.readWaveformMonaural(stream);
         final AudioFormat format = stream.getFormat();
         final double sampleRate = format.getSampleRate();
         final double nyquist = sampleRate * 0.5;
@@ -3,7 +3,6 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
@@ -33,7 +32,6 @@ import jp.ac.kyoto_u.kuis.le4music.LineChartWithSpectrogram;
 import java.io.IOException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 public final class PlotVolumeCLI extends Application {
@@ -52,6 +50,8 @@ public final class PlotVolumeCLI extends Application {
         options.addOption("a", "amp-bounds", true,
                           "Upper(+) and lower(-) bounds in the amplitude direction " +
                           "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+        options.addOption("S", "stream", false,
+                          "Read and analyze the file block by block with bounded memory");
     }
 
    @Override
@@ -76,12 +76,13 @@ public final class PlotVolumeCLI extends Application {
         }
         final File wavFile = new File(pargs[0]);
 
-        /* W A V ファイル読み込み*/
+        /* W A V ファイル読み込み（ストリーミング時は波形全体を読み込まない）*/
+        final boolean streaming = cmd.hasOption("stream");
         final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
+        final double[] waveform = streaming ? null : WaveformDecoder.readWaveformMonaural(stream);
         final AudioFormat format = stream.getFormat();
         final double sampleRate = format.getSampleRate();
-        stream.close();
+        final long samples = stream.getFrameLength();
         
         /* 窓関数とFFTのサンプル数 */
         final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
@@ -99,27 +100,32 @@ public final class PlotVolumeCLI extends Application {
         final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
                 1.0);
 
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs() * c.abs()).toArray())
-                .toArray(n -> new double[n][]);
-        
         /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-        final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-        
+        final double[] times = IntStream.range(0, (int) (samples / shiftSize)).mapToDouble(i -> i * shiftDuration).toArray();
+
         final double[] average = new double[times.length];
-        for (int i = 0; i < times.length; i++) {
-        		double sum = 0;
-        	for (int j = 0; j < specLog[i].length; j++) {
-        		sum += specLog[i][j];
-        	}
-        	average[i] = Math.sqrt(sum / specLog[i].length); //各フレームに対する平均振幅二乗
-        	
+        if (streaming) {
+            /* 短時間フーリエ変換本体（ブロックごとに読み込みながら1フレームずつ音量を求める） */
+            new StreamingFrames(stream, fftSize, shiftSize).forEachSpectrum(window, (i, re, im) -> {
+                double sum = 0;
+                for (int j = 0; j < re.length; j++) {
+                    sum += re[j] * re[j] + im[j] * im[j];
+                }
+                average[i] = Math.sqrt(sum / re.length); //各フレームに対する平均振幅二乗
+            });
+        } else {
+            /* 短時間フーリエ変換本体（並列に振幅スペクトログラムを求める） */
+            final Spectrogram spec = new STFT(window, shiftSize).magnitude(waveform);
+            for (int i = 0; i < times.length; i++) {
+                double sum = 0;
+                for (int j = 0; j < spec.bins(); j++) {
+                    sum += spec.get(i, j) * spec.get(i, j);
+                }
+                average[i] = Math.sqrt(sum / spec.bins()); //各フレームに対する平均振幅二乗
+            }
         }
-        	        
+        stream.close();
+
         /* データ系列を作成*/
         final ObservableList<XYChart.Data<Number, Number>> data =
             IntStream.range(0, average.length)
@@ -136,7 +142,7 @@ public final class PlotVolumeCLI extends Application {
         
         
         /* X 軸を作成*/
-        final double duration = (waveform.length - 1) / sampleRate;
+        final double duration = (samples - 1) / sampleRate;
         final NumberAxis xAxis = new NumberAxis(
             /* axisLabel = */ "Time (seconds)",
             /* lowerBound = */ 0.0,
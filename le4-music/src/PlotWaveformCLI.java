@@ -1,9 +1,6 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -13,12 +10,8 @@ import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
-import javafx.scene.chart.XYChart;
-import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.image.WritableImage;
-import javafx.collections.ObservableList;
-import javafx.collections.FXCollections;
 import javafx.embed.swing.SwingFXUtils;
 
 import org.apache.commons.cli.CommandLine;
@@ -27,6 +20,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+import static jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.verbose;
 
 import java.io.IOException;
 import javax.sound.sampled.UnsupportedAudioFileException;
@@ -40,10 +34,13 @@ public final class PlotWaveformCLI extends Application {
     static {
         /* コマンドラインオプション定義 */
         options.addOption("h", "help", false, "Display this help and exit");
+        options.addOption("v", "verbose", false, "Verbose output");
         options.addOption("o", "outfile", true, "Output image file (Default: "
                 + MethodHandles.lookup().lookupClass().getSimpleName() + "." + Le4MusicUtils.outputImageExt + ")");
         options.addOption("a", "amp-bounds", true, "Upper(+) and lower(-) bounds in the amplitude direction "
                 + "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+        options.addOption("p", "peaks", false, "Read the waveform summary saved next to WAVFILE "
+                + "(created on first use) instead of decoding WAVFILE");
     }
 
     @Override
@@ -57,6 +54,8 @@ public final class PlotWaveformCLI extends Application {
             Platform.exit();
             return;
         }
+        verbose = cmd.hasOption("verbose");
+
         final String[] pargs = cmd.getArgs();
         if (pargs.length < 1) {
             System.out.println("WAVFILE is not given.");
@@ -66,23 +65,23 @@ public final class PlotWaveformCLI extends Application {
         }
         final File wavFile = new File(pargs[0]);
 
-        /* W A V ファイル読み込み */
-        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = stream.getFormat();
-        final double sampleRate = format.getSampleRate();
-        stream.close();
-
-        /* データ系列を作成 */
-        final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, waveform.length)
-                .mapToObj(i -> new XYChart.Data<Number, Number>(i / sampleRate, waveform[i]))
-                .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-        /* データ系列に名前をつける */
-        final XYChart.Series<Number, Number> series = new XYChart.Series<>("Waveform", data);
+        /* W A V ファイル読み込み（波形の要約を作り，描画は要約から行う） */
+        final double[] waveform;
+        final WaveformPyramid pyramid;
+        if (cmd.hasOption("peaks")) {
+            waveform = null;
+            pyramid = WaveformPyramid.loadOrBuild(wavFile);
+        } else {
+            final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
+            waveform = WaveformDecoder.readWaveformMonaural(stream);
+            final AudioFormat format = stream.getFormat();
+            stream.close();
+            pyramid = WaveformPyramid.of(waveform, waveform.length, format.getSampleRate());
+        }
+        final double sampleRate = pyramid.sampleRate();
 
         /* X 軸を作成 */
-        final double duration = (waveform.length - 1) / sampleRate;
+        final double duration = (pyramid.length() - 1) / sampleRate;
         final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
                 /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
         xAxis.setAnimated(false);
@@ -94,12 +93,12 @@ public final class PlotWaveformCLI extends Application {
                 /* upperBound = */ +ampBounds, /* tickUnit = */ Le4MusicUtils.autoTickUnit(ampBounds * 2.0));
         yAxis.setAnimated(false);
 
-        /* チャートを作成 */
-        final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+        /* チャートを作成（波形はデータ系列を作らずに画素単位で間引いて描画する） */
+        final LineChartWithWaveform chart = new LineChartWithWaveform(xAxis, yAxis);
         chart.setTitle("Waveform");
         chart.setCreateSymbols(false);
         chart.setLegendVisible(false);
-        chart.getData().add(series);
+        chart.setWaveform(pyramid, waveform, 0.0);
 
         /* グラフ描画 */
         final Scene scene = new Scene(chart, 800, 600);
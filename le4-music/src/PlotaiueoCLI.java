@@ -1,10 +1,7 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
-import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
@@ -24,7 +21,6 @@ import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.image.WritableImage;
-import javafx.collections.ObservableList;
 import javafx.collections.FXCollections;
 import javafx.embed.swing.SwingFXUtils;
 
@@ -33,8 +29,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
 import jp.ac.kyoto_u.kuis.le4music.CheckAudioSystem;
@@ -70,6 +64,8 @@ public final class PlotaiueoCLI extends Application {
                                 + Le4MusicUtils.spectrumAmplitudeUpperBound + ")");
                 options.addOption(null, "freq-lo", true, "Lower bound of frequency [Hz] (Default: 0.0)");
                 options.addOption(null, "freq-up", true, "Upper bound of frequency [Hz] (Default: Nyquist)");
+                options.addOption("M", "model", true, "Vowel model file written by TrainVowelModelCLI. "
+                                + "With the five training WAVFILEs it is retrained only when they have changed");
         }
 
         @Override
@@ -90,92 +86,44 @@ public final class PlotaiueoCLI extends Application {
                         Platform.exit();
                         return;
                 }
-                final File[] wavFile = new File[5];
-                wavFile[0] = new File(pargs[0]);
-                wavFile[1] = new File(pargs[1]);
-                wavFile[2] = new File(pargs[2]);
-                wavFile[3] = new File(pargs[3]);
-                wavFile[4] = new File(pargs[4]);
-
-                double[][] average = new double[5][13];// 最尤推定した結果の平均
-                double[][] s_power = new double[5][13];// 最尤推定した結果の分散
-
-                for (int v = 0; v < 5; v++) {
-                        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile[v]);
-                        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-                        final AudioFormat format = stream.getFormat();
-                        final double sampleRate = format.getSampleRate();
-                        final double nyquist = sampleRate * 0.5;
-                        stream.close();
-
-                        /*
-                         * fftSize = 2ˆp >= waveform.length を満たすfftSize を求める 2ˆp はシフト演算で求める
-                         */
-                        /* 窓関数とFFTのサンプル数 */
-                        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame"))
-                                        .map(Double::parseDouble).orElse(Le4MusicUtils.frameDuration);
-                        final int frameSize = (int) Math.round(frameDuration * sampleRate);
-                        final int fftSize = 1 << Le4MusicUtils.nextPow2(waveform.length);
-                        final int fftSize2 = (fftSize >> 1) + 1;
-                        /*
-                         * 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める． 振幅を信号長で正規化する．
-                         */
-                        /* シフトのサンプル数 */
-                        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift"))
-                                        .map(Double::parseDouble).orElse(Le4MusicUtils.frameDuration / 8);
-                        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-                        /* 窓関数を求め， それを正規化する */
-                        final double[] window = MathArrays
-                                        .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
-                        /* 短時間フーリエ変換本体 */
-                        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                                        .map(frame -> Le4MusicUtils.rfft(frame));
-
-                        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-                        double[][] specLog = spectrogram
-                                        .map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                                        .toArray(n -> new double[n][]);
-
-                        /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-                        final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration)
-                                        .toArray();
-
-                        /* 参考： 各フーリエ変換係数に対応する周波数 */
-                        final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize)
-                                        .toArray();
-
-                        Complex[][] cepstrum = new Complex[times.length][];
-                        final double[][] ceps = new double[times.length][];
-                        for (int i = 0; i < times.length; i++) {
-                                int fftSize_c = 1 << Le4MusicUtils.nextPow2(specLog[i].length);
-                                int fftSize2_c = (fftSize_c >> 1) + 1;
-                                double[] src = Arrays.stream(Arrays.copyOf(specLog[i], fftSize_c)).toArray();
-                                cepstrum[i] = Le4MusicUtils.fft(src);
-                                ceps[i] = new double[13];
-                                for (int j = 0; j < 13; j++) {
-                                        ceps[i][j] = cepstrum[i][j].getReal();
-                                } // これを１３こだけ使う予定
-                        }
-                        for (int i = 0; i < 13; i++) {
-                                double sum = 0;
-                                for (int j = 0; j < times.length; j++) {
-                                        sum += ceps[j][i];
-                                }
-                                average[v][i] = sum / times.length;
-                        }
-                        for (int i = 0; i < 13; i++) {
-                                double sum = 0;
-                                for (int j = 0; j < times.length; j++) {
-                                        sum += Math.pow((average[v][i] - ceps[j][i]), 2);
-                                }
-                                s_power[v][i] = sum / times.length;
-                        }
+                /* 窓関数とFFTのサンプル数（変換長はフレーム長とする） */
+                final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                                .orElse(Le4MusicUtils.frameDuration);
+                /* シフトの長さ */
+                final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                                .orElse(Le4MusicUtils.frameDuration / 8);
+                final VowelModel.Analysis analysis = new VowelModel.Analysis(frameDuration, shiftDuration, false, 13);
+
+                /* 母音のモデル（保存されたモデルがあればそれを使う） */
+                final File modelFile = Optional.ofNullable(cmd.getOptionValue("model")).map(File::new).orElse(null);
+                final VowelModel model;
+                final File wavFile_tes;
+                if (pargs.length >= 6) {
+                        final File[] wavFile = new File[5];
+                        wavFile[0] = new File(pargs[0]);
+                        wavFile[1] = new File(pargs[1]);
+                        wavFile[2] = new File(pargs[2]);
+                        wavFile[3] = new File(pargs[3]);
+                        wavFile[4] = new File(pargs[4]);
+                        model = modelFile != null ? VowelModel.loadOrTrain(modelFile, wavFile, analysis)
+                                        : VowelModel.train(wavFile, analysis);
+                        wavFile_tes = new File(pargs[5]);
+                } else if (modelFile != null) {
+                        model = VowelModel.load(modelFile);
+                        if (!model.analysis().equals(analysis))
+                                throw new IOException("model was trained with different parameters: " + model.analysis());
+                        wavFile_tes = new File(pargs[0]);
+                } else {
+                        System.out.println("five training WAVFILEs or --model are not given.");
+                        new HelpFormatter().printHelp(helpMessage, options);
+                        Platform.exit();
+                        return;
                 }
+                final GaussianClassifier classifier = model.classifier(); // 最尤推定した平均と分散による識別器
 
-                final File wavFile_tes = new File(pargs[5]);
                 System.out.println("test file is " + wavFile_tes);
                 final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile_tes);
-                final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
+                final double[] waveform = WaveformDecoder.readWaveformMonaural(stream);
                 final AudioFormat format = stream.getFormat();
                 final double sampleRate = format.getSampleRate();
                 final double nyquist = sampleRate * 0.5;
@@ -186,71 +134,24 @@ public final class PlotaiueoCLI extends Application {
 
                 final ExecutorService executor = Executors.newSingleThreadExecutor();
 
-                /*
-                 * fftSize = 2ˆp >= waveform.length を満たすfftSize を求める 2ˆp はシフト演算で求める
-                 */
-                /* 窓関数とFFTのサンプル数 */
-                final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration);
-                final int frameSize = (int) Math.round(frameDuration * sampleRate);
-                final int fftSize = 1 << Le4MusicUtils.nextPow2(waveform.length);
-                final int fftSize2 = (fftSize >> 1) + 1;
-                /*
-                 * 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める． 振幅を信号長で正規化する．
-                 */
-                /* シフトのサンプル数 */
-                final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration / 8);
-                final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
                 /* 窓関数を求め， それを正規化する */
-                final double[] window = MathArrays
-                                .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
+                final double[] window = analysis.window(sampleRate);
+                final int shiftSize = analysis.shiftSize(sampleRate);
                 /* 短時間フーリエ変換本体 (for aiueo) */
-                final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                                .map(frame -> Le4MusicUtils.rfft(frame));
-
-                /* 複素スペクトログラムを振幅スペクトログラムに (for aiueo) */
-                double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                                .toArray(n -> new double[n][]);
+                final Spectrogram specLog = new STFT(window, shiftSize).magnitude(waveform);
 
                 /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-                final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-
-                Complex[][] cepstrum = new Complex[times.length][];
-                final double[][] ceps = new double[times.length][13];
-                int[] index = new int[times.length];
-
-                for (int i = 0; i < times.length; i++) {
-                        int fftSize_c = 1 << Le4MusicUtils.nextPow2(specLog[i].length);
-                        int fftSize2_c = (fftSize_c >> 1) + 1;
-                        double[] src = Arrays.stream(Arrays.copyOf(specLog[i], fftSize_c)).toArray();
-                        cepstrum[i] = Le4MusicUtils.fft(src);
-                        for (int j = 0; j < 13; j++) {
-                                ceps[i][j] = cepstrum[i][j].getReal();
-                        } // これを１３こだけ使う予定
-
-                }
-                for (int i = 0; i < times.length; i++) {
-
-                        double[] L = new double[5];
-                        for (int aiueo = 0; aiueo < 5; aiueo++) {
-                                double sum = 0;
-                                for (int d = 0; d < 13; d++) {
-                                        sum += Math.log(Math.sqrt(s_power[aiueo][d]))
-                                                        + (Math.pow((ceps[i][d] - average[aiueo][d]), 2)
-                                                                        / (2 * s_power[aiueo][d]));
-                                }
-                                L[aiueo] = -1 * sum;
-                        }
-                        index[i] = Le4MusicUtils.argmax(L);
-                }
+                final double[] times = IntStream.range(0, specLog.frames()).mapToDouble(i -> i * shiftDuration).toArray();
 
-                /* データ系列を作成 (for aiueo) */
-                final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, index.length)
-                                .mapToObj(i -> new XYChart.Data<Number, Number>(i * shiftDuration, index[i]))
-                                .collect(Collectors.toCollection(FXCollections::observableArrayList));
+                /* ケプストラム分析（13次の係数を使う） */
+                final Cepstrum cepstrum = new Cepstrum(specLog.bins(), 13);
+                final double[] ceps = cepstrum.coefficients(specLog);
+                /* 全フレームをまとめて識別する（対数尤度が最も大きいのが認識結果の母音） */
+                final int frames = specLog.frames();
+                final int[] index = classifier.classify(ceps, 0, cepstrum.order(), frames, new double[frames],
+                                new int[frames]);
 
-                /* データ系列に名前をつける (for aiueo) with animation */
+                /* データ系列を作成 (for aiueo)（認識結果はチャート作成時に追加する） */
                 final XYChart.Series<Number, String> series = new XYChart.Series<>();
 
                 /* X 軸を作成 (for aiueo) */
@@ -270,7 +171,7 @@ public final class PlotaiueoCLI extends Application {
                 yAxis.setCategories(FXCollections.<String>observableArrayList(CATEGORIES));
 
                 for (int i = 0; i < index.length; i++) {
-                        new XYChart.Data<Number, String>(i * shiftDuration, CATEGORIES[i]);
+                        series.getData().add(new XYChart.Data<Number, String>(i * shiftDuration, CATEGORIES[index[i]]));
                 }
                 chart.setCreateSymbols(false);
                 chart.setLegendVisible(false);
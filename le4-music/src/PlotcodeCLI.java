@@ -2,7 +2,6 @@ import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
@@ -28,7 +27,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -53,6 +51,14 @@ public final class PlotcodeCLI extends Application {
                 options.addOption("f", "frame", true,
                                 "Duration of frame [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
                 options.addOption("s", "shift", true, "Duration of shift [seconds] (Default: frame/8)");
+                options.addOption("S", "stream", false, "Memory-map the WAV file and analyze it "
+                                + "block by block with bounded memory");
+                options.addOption("H", "hmm", false, "Smooth the chord sequence with an HMM "
+                                + "(Viterbi over the whole file, or fixed-lag decoding with --stream)");
+                options.addOption(null, "stay", true, "Probability of staying on the same chord per frame (Default: "
+                                + ChordHMM.defaultStayProbability + ")");
+                options.addOption(null, "lag", true,
+                                "Decoding lag with --stream --hmm [frames] (Default: " + ChordHMM.defaultLag + ")");
         }
 
         @Override
@@ -76,133 +82,148 @@ public final class PlotcodeCLI extends Application {
 
                 final File wavFile = new File(pargs[0]);
 
-                /* WAVファイル読み込み */
-                final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-                final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-                final AudioFormat format = stream.getFormat();
-                final double sampleRate = format.getSampleRate();
-                final double nyquist = sampleRate * 0.5;
-                stream.close();
-
-                /* 窓関数とFFTのサンプル数 */
-                final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration);
-                final int frameSize = (int) Math.round(frameDuration * sampleRate);
-                final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
-                final int fftSize2 = (fftSize >> 1) + 1;
-
-                /* シフトのサンプル数 */
-                final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration / 8);
-                int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-
-                /* 窓関数を求め， それを正規化する */
-                final double[] window = MathArrays
-                                .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
-                /* 短時間フーリエ変換本体 */
-                final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                                .map(frame -> Le4MusicUtils.rfft(frame));
-
-                System.out.print(shiftSize);
-
-                /* 複素スペクトログラムを振幅スペクトログラムに */
-                final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                                .toArray(n -> new double[n][]);
-
-                /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-                final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-
-                /* 参考： 各フーリエ変換係数に対応する周波数 */
-                final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize)
-                                .toArray();
-                // n mod 12 = 0
-                int[] harmony_ans = new int[times.length];
-                int[] code_counter = new int[12];
-                for (int i = 0; i < times.length; i++) {
-                        double[] chroma_v = new double[12]; // initialize
-                        for (int j = 0; j < specLog[i].length; j++) {
-                                double f = j * sampleRate / fftSize;
-                                if (f != 0) {
-                                        int n = (int) Math.round(Le4MusicUtils.hz2nn(f)); // この周波数に対応するノートナンバー
-                                        if (n >= 0) {
-                                                int code = n % 12; // そのノートナンバーを12で割ると0,..11がC, C#,...に対応する
-                                                code_counter[code] += 1;
-                                                chroma_v[code] += Math.abs(specLog[i][j]);
-                                        }
+                /* WAVファイル読み込み（ストリーミング時はWAVファイルをメモリマップし，波形全体を読み込まない） */
+                final boolean streaming = cmd.hasOption("stream");
+                try (MappedWavReader reader = streaming ? new MappedWavReader(wavFile) : null;
+                                AudioInputStream stream = streaming ? null : AudioSystem.getAudioInputStream(wavFile)) {
+                        final double[] waveform = streaming ? null : WaveformDecoder.readWaveformMonaural(stream);
+                        final AudioFormat format = streaming ? reader.getFormat() : stream.getFormat();
+                        final double sampleRate = format.getSampleRate();
+                        final double nyquist = sampleRate * 0.5;
+                        final long samples = streaming ? reader.getFrameLength() : stream.getFrameLength();
+
+                        /* 窓関数とFFTのサンプル数 */
+                        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                                        .orElse(Le4MusicUtils.frameDuration);
+                        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+                        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+                        final int fftSize2 = (fftSize >> 1) + 1;
+
+                        /* シフトのサンプル数 */
+                        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                                        .orElse(Le4MusicUtils.frameDuration / 8);
+                        int shiftSize = (int) Math.round(shiftDuration * sampleRate);
+
+                        /* 窓関数を求め， それを正規化する */
+                        final double[] window = MathArrays
+                                        .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
+
+                        System.out.print(shiftSize);
+
+                        /* 参考： フレーム数と各フレーム先頭位置の時刻 */
+                        final double[] times = IntStream.range(0, (int) (samples / shiftSize)).mapToDouble(i -> i * shiftDuration).toArray();
+
+                        /* 参考： 各フーリエ変換係数に対応する周波数 */
+                        final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize)
+                                        .toArray();
+                        int[] harmony_ans = new int[times.length];
+                        /* 各ビンの音名と正規化の重みは最初に一度だけ求めておく */
+                        final Chroma chroma = new Chroma(sampleRate, fftSize);
+                        final double[] chroma_v = new double[12];
+
+                        /* HMMによる平滑化（ストリーミング時は一定の遅れで逐次的に確定させる） */
+                        final ChordHMM hmm = cmd.hasOption("hmm")
+                                        ? new ChordHMM(Optional.ofNullable(cmd.getOptionValue("stay")).map(Double::parseDouble)
+                                                        .orElse(ChordHMM.defaultStayProbability), ChordHMM.defaultSharpness)
+                                        : null;
+                        final ChordHMM.Decoder decoder = hmm != null && streaming
+                                        ? hmm.decoder(Optional.ofNullable(cmd.getOptionValue("lag")).map(Integer::parseInt)
+                                                        .orElse(ChordHMM.defaultLag))
+                                        : null;
+                        final double[] emissions = hmm == null ? null
+                                        : new double[(decoder != null ? 1 : times.length) * ChordHMM.STATES];
+                        final double[] harmony = new double[Chroma.CHORDS];
+
+                        /* 1フレームの振幅スペクトルから和音を求める */
+                        final SlidingFrames.FrameConsumer chordOfFrame = (i, spectrum) -> {
+                                chroma.chroma(spectrum, 0, chroma_v); // 音名ごとに平均をとったクロマベクトル
+                                if (hmm == null) {
+                                        harmony_ans[i] = Chroma.chord(chroma_v);
+                                } else if (decoder != null) {
+                                        hmm.emission(Chroma.chordScores(chroma_v, harmony), emissions, 0);
+                                        final int c = decoder.push(emissions, 0);
+                                        if (c >= 0)
+                                                harmony_ans[i - decoder.lag()] = c;
+                                } else {
+                                        hmm.emission(Chroma.chordScores(chroma_v, harmony), emissions, i * ChordHMM.STATES);
                                 }
+                        };
+                        final double[] row = new double[fftSize2];
+                        if (streaming) {
+                                /* 短時間フーリエ変換本体（ブロックごとに読み込みながら1フレームずつ処理する） */
+                                new StreamingFrames(reader, fftSize, shiftSize).forEachSpectrum(window, (i, re, im) -> {
+                                        RealFFT.abs(re, im, row);
+                                        chordOfFrame.accept(i, row);
+                                });
+                        } else {
+                                /* 短時間フーリエ変換本体（並列に対数振幅スペクトログラムを16ビットに量子化して求める） */
+                                final QuantizedSpectrogram specLog = new STFT(window, shiftSize).logMagnitude(waveform,
+                                                QuantizedSpectrogram.magnitudeLowerBound, 0.0, 16);
+                                for (int i = 0; i < specLog.frames(); i++)
+                                        chordOfFrame.accept(i, specLog.magnitudeRow(i, row));
                         }
-                        double[] harmony = new double[24]; // initialize
-                        for (int y = 0; y < 12; y++) {
-                                chroma_v[y] = chroma_v[y] / code_counter[y]; // 現れるコードナンバーに偏りがないように正規化(平均をとる)
+                        if (decoder != null) {
+                                /* 末尾の確定していないフレーム */
+                                final int[] rest = new int[decoder.lag()];
+                                final int n = decoder.flush(rest);
+                                System.arraycopy(rest, 0, harmony_ans, harmony_ans.length - n, n);
+                        } else if (hmm != null) {
+                                System.arraycopy(hmm.viterbi(emissions, harmony_ans.length), 0, harmony_ans, 0, harmony_ans.length);
                         }
-                        for (int w = 0; w <= 23; w++) {
-                                if (w % 2 == 0) { // major
-                                        harmony[w] = 1.0 * chroma_v[w / 2] + 0.5 * chroma_v[(w / 2 + 4) % 12]
-                                                        + 0.8 * chroma_v[(w / 2 + 7) % 12];
-                                } else { // minor
-                                        harmony[w] = 1.0 * chroma_v[(w - 1) / 2]
-                                                        + 0.5 * chroma_v[((w - 1) / 2 + 3) % 12]
-                                                        + 0.8 * chroma_v[((w - 1) / 2 + 7) % 12];
-                                }
-                        }
-                        harmony_ans[i] = Le4MusicUtils.argmax(harmony);
-                }
 
-                /* データ系列を作成 */
-                final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, harmony_ans.length)
-                                .mapToObj(i -> new XYChart.Data<Number, Number>(i * shiftDuration, harmony_ans[i]))
-                                .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-                /* データ系列に名前をつける */
-                final XYChart.Series<Number, String> series = new XYChart.Series<>();
-
-                /* X 軸を作成 */
-                final double duration = (waveform.length - 1) / sampleRate;
-                final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
-                                /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
-                xAxis.setAnimated(false);
-
-                /* Y 軸を作成 */
-                final CategoryAxis yAxis = new CategoryAxis();
-                yAxis.setAnimated(false);
-
-                /* チャートを作成 */
-                String[] chord = new String[] { "C Major", "C Minor", "C# Major", "C# Minor", "D Major", "D Minor",
-                                "D# Major", "D# Minor", "E Major", "E Minor", "F Major", "F Minor", "F# Major",
-                                "F# Minor", "G Major", "G Minor", "G# Major", "G# Minor", "A Major", "A Minor",
-                                "A# Major", "A# Minor", "B Major", "B Minor" };
-                yAxis.setCategories(FXCollections.<String>observableArrayList(chord));
-                final LineChart<Number, String> chart = new LineChart<>(xAxis, yAxis);
-                chart.setTitle("harmony");
-                for (int i = 0; i < harmony_ans.length; i++) {
-                        series.getData().add(
-                                        new XYChart.Data<Number, String>(i * shiftDuration, chord[harmony_ans[i]]));
-                }
-                chart.setCreateSymbols(false);
-                chart.setLegendVisible(false);
-                chart.getData().add(series);
-
-                /* グラフ描画 */
-                final Scene scene = new Scene(chart, 800, 600);
-                scene.getStylesheets().add("le4music.css");
-
-                /* ウインドウ表示 */
-                primaryStage.setScene(scene);
-                primaryStage.setTitle(getClass().getName());
-                primaryStage.show();
-
-                /* チャートを画像ファイルへ出力 */
-                Platform.runLater(() -> {
-                        final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
-                                        Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
-                        final WritableImage image = scene.snapshot(null);
-                        try {
-                                ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
-                                                new File(name_ext[0] + "." + name_ext[1]));
-                        } catch (IOException e) {
-                                e.printStackTrace();
+                        /* データ系列を作成 */
+                        final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, harmony_ans.length)
+                                        .mapToObj(i -> new XYChart.Data<Number, Number>(i * shiftDuration, harmony_ans[i]))
+                                        .collect(Collectors.toCollection(FXCollections::observableArrayList));
+
+                        /* データ系列に名前をつける */
+                        final XYChart.Series<Number, String> series = new XYChart.Series<>();
+
+                        /* X 軸を作成 */
+                        final double duration = (samples - 1) / sampleRate;
+                        final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
+                                        /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
+                        xAxis.setAnimated(false);
+
+                        /* Y 軸を作成 */
+                        final CategoryAxis yAxis = new CategoryAxis();
+                        yAxis.setAnimated(false);
+
+                        /* チャートを作成 */
+                        final String[] chord = Chroma.CHORD_NAMES;
+                        yAxis.setCategories(FXCollections.<String>observableArrayList(chord));
+                        final LineChart<Number, String> chart = new LineChart<>(xAxis, yAxis);
+                        chart.setTitle("harmony");
+                        for (int i = 0; i < harmony_ans.length; i++) {
+                                series.getData().add(
+                                                new XYChart.Data<Number, String>(i * shiftDuration, chord[harmony_ans[i]]));
                         }
-                });
+                        chart.setCreateSymbols(false);
+                        chart.setLegendVisible(false);
+                        chart.getData().add(series);
+
+                        /* グラフ描画 */
+                        final Scene scene = new Scene(chart, 800, 600);
+                        scene.getStylesheets().add("le4music.css");
+
+                        /* ウインドウ表示 */
+                        primaryStage.setScene(scene);
+                        primaryStage.setTitle(getClass().getName());
+                        primaryStage.show();
+
+                        /* チャートを画像ファイルへ出力 */
+                        Platform.runLater(() -> {
+                                final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
+                                                Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
+                                final WritableImage image = scene.snapshot(null);
+                                try {
+                                        ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
+                                                        new File(name_ext[0] + "." + name_ext[1]));
+                                } catch (IOException e) {
+                                        e.printStackTrace();
+                                }
+                        });
+                }
         }
 
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Optional;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
@@ -34,7 +33,6 @@ import jp.ac.kyoto_u.kuis.le4music.LineChartWithSpectrogram;
 import java.io.IOException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 public final class Plotf0CLI extends Application {
@@ -51,6 +49,8 @@ public final class Plotf0CLI extends Application {
                                                 + "." + Le4MusicUtils.outputImageExt + ")");
                 options.addOption("a", "amp-bounds", true, "Upper(+) and lower(-) bounds in the amplitude direction "
                                 + "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+                options.addOption("S", "stream", false, "Memory-map the WAV file and analyze it "
+                                + "block by block with bounded memory");
         }
 
         @Override
@@ -73,136 +73,150 @@ public final class Plotf0CLI extends Application {
                 }
                 final File wavFile = new File(pargs[0]);
 
-                /* W A V ファイル読み込み */
-                final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-                final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-                final AudioFormat format = stream.getFormat();
-                final double sampleRate = format.getSampleRate();
-                final double nyquist = sampleRate * 0.5;
-                stream.close();
-
-                /* 窓関数とFFTのサンプル数 */
-                final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration);
-                final int frameSize = (int) Math.round(frameDuration * sampleRate);
-                final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
-                final int fftSize2 = (fftSize >> 1) + 1;
-
-                /* シフトのサンプル数 */
-                final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                                .orElse(Le4MusicUtils.frameDuration / 8);
-                final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-
-                /* 窓関数を求め， それを正規化する */
-                final double[] window = MathArrays
-                                .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
-
-                /* 短時間フーリエ変換本体 */
-                final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                                .map(frame -> Le4MusicUtils.rfft(frame));
-
-                /* 複素スペクトログラムを振幅スペクトログラムに 基本周波数用 */
-                double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                                .toArray(n -> new double[n][]);
-
-                /* 短時間フーリエ変換本体 */
-                final Stream<Complex[]> spectrogram1 = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                                .map(frame -> Le4MusicUtils.rfft(frame));
-
-                /* 複素スペクトログラムを対数振幅スペクトログラムに グラフ表示用 */
-                final double[][] specLog1 = spectrogram1
-                                .map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                                .toArray(n -> new double[n][]);
-
-                /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-                final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
-
-                /* 参考： 各フーリエ変換係数に対応する周波数 */
-                final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize)
-                                .toArray();
-                System.out.println(times.length);
-
-                double[] f0 = new double[times.length];
-                double[] new_freq = new double[times.length];
-                final double lowerf0 = Le4MusicUtils.f0LowerBound;
-                final double upperf0 = 400;
-
-                for (int i = 0; i < times.length; i++) {
-                        // specLog[i][j]が振幅
-                        for (int j = 0; j < specLog[i].length; j++) {
-                                if (j * sampleRate / fftSize < upperf0 && j * sampleRate / fftSize > lowerf0
-                                                && specLog[i][j] > f0[i]) {// 振幅の最大値を取ってくる
-                                        f0[i] = specLog[i][j];
-                                        new_freq[i] = j;
+                /* W A V ファイル読み込み（ストリーミング時はWAVファイルをメモリマップし，波形全体を読み込まない） */
+                final boolean streaming = cmd.hasOption("stream");
+                try (MappedWavReader reader = streaming ? new MappedWavReader(wavFile) : null;
+                                AudioInputStream stream = streaming ? null : AudioSystem.getAudioInputStream(wavFile)) {
+                        final double[] waveform = streaming ? null : WaveformDecoder.readWaveformMonaural(stream);
+                        final AudioFormat format = streaming ? reader.getFormat() : stream.getFormat();
+                        final double sampleRate = format.getSampleRate();
+                        final double nyquist = sampleRate * 0.5;
+                        final long samples = streaming ? reader.getFrameLength() : stream.getFrameLength();
+
+                        /* 窓関数とFFTのサンプル数 */
+                        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                                        .orElse(Le4MusicUtils.frameDuration);
+                        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+                        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+                        final int fftSize2 = (fftSize >> 1) + 1;
+
+                        /* シフトのサンプル数 */
+                        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                                        .orElse(Le4MusicUtils.frameDuration / 8);
+                        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
+
+                        /* 窓関数を求め， それを正規化する */
+                        final double[] window = MathArrays
+                                        .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
+
+                        /* 参考： フレーム数と各フレーム先頭位置の時刻 */
+                        final double[] times = IntStream.range(0, (int) (samples / shiftSize)).mapToDouble(i -> i * shiftDuration).toArray();
+
+                        /* 参考： 各フーリエ変換係数に対応する周波数 */
+                        final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize)
+                                        .toArray();
+                        System.out.println(times.length);
+
+                        /* X 軸を作成 */
+                        final double duration = (times.length - 1) * shiftDuration;
+                        final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
+                                        /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
+                        xAxis.setAnimated(false);
+
+                        /* Y 軸を作成 */
+                        final NumberAxis yAxis = new NumberAxis(/* axisLabel = */ "Frequency (Hz)", /* lowerBound = */ 0.0,
+                                        /* upperBound = */ 600, /* tickUnit = */ Le4MusicUtils.autoTickUnit(600));
+                        yAxis.setAnimated(false);
+
+                        /* チャートを作成（スペクトログラムは解析しながら追加する） */
+                        final LineChartWithSpectrogram<Number, Number> chart = new LineChartWithSpectrogram<>(xAxis, yAxis);
+                        chart.setParameters(times.length, fftSize2, nyquist);
+
+                        double[] f0 = new double[times.length];
+                        double[] new_freq = new double[times.length];
+                        final double lowerf0 = Le4MusicUtils.f0LowerBound;
+                        final double upperf0 = 400;
+                        System.out.print(shiftSize);
+                        System.out.print(frameSize);
+
+                        /* 1フレームの振幅スペクトルから基本周波数を求め，スペクトログラムを表示する */
+                        final double[] specLog1 = new double[fftSize2];
+                        final SlidingFrames.FrameConsumer f0OfFrame = (i, specLog) -> {
+                                // specLog[j]が振幅
+                                for (int j = 0; j < specLog.length; j++) {
+                                        if (j * sampleRate / fftSize < upperf0 && j * sampleRate / fftSize > lowerf0
+                                                        && specLog[j] > f0[i]) {// 振幅の最大値を取ってくる
+                                                f0[i] = specLog[j];
+                                                new_freq[i] = j;
+                                        }
                                 }
-                        }
-                }
-                System.out.print(shiftSize);
-                System.out.print(frameSize);
-                int pointer = 0;
-                for (int m = 0; m < waveform.length - 1 - frameSize; m += shiftSize) {
-                        int zero_counter = 0;
-                        for (int n = m; n < m + frameSize - 1; n++) {
-                                if (waveform[n] * waveform[n + 1] < 0) { // これらの点の掛け算がゼロだと前後のうちどちらかが負でどちらかが正であることがわかる.
-                                        zero_counter += 1;
+                                /* 対数振幅スペクトログラム グラフ表示用 */
+                                for (int j = 0; j < specLog.length; j++)
+                                        specLog1[j] = 20.0 * Math.log10(specLog[j]);
+                                chart.addSpecLog(specLog1); // グラフにスペクトログラム表示
+                        };
+
+                        /* 1フレームの窓掛け前の波形の零交差数から無声区間を除く */
+                        final SlidingFrames.FrameConsumer zeroCrossOfFrame = (i, frame) -> {
+                                if ((long) i * shiftSize < samples - 1 - frameSize) {
+                                        int zero_counter = 0;
+                                        for (int n = 0; n < frameSize - 1; n++) {
+                                                if (frame[n] * frame[n + 1] < 0) { // これらの点の掛け算がゼロだと前後のうちどちらかが負でどちらかが正であることがわかる.
+                                                        zero_counter += 1;
+                                                }
+                                        }
+                                        if (zero_counter > 2 * new_freq[i] + 180) {
+                                                new_freq[i] = 0;
+                                        }
+                                }
+                        };
+
+                        /* 短時間フーリエ変換本体（1回の変換から振幅と対数振幅の両方を求める） */
+                        final RealFFT rfft = RealFFT.of(fftSize);
+                        final double[] wframe = new double[fftSize];
+                        final double[] re = new double[fftSize2];
+                        final double[] im = new double[fftSize2];
+                        final double[] specLog = new double[fftSize2];
+                        final SlidingFrames.FrameConsumer analyzeFrame = (i, frame) -> {
+                                for (int k = 0; k < fftSize; k++)
+                                        wframe[k] = frame[k] * window[k];
+                                rfft.forward(wframe, re, im);
+                                RealFFT.abs(re, im, specLog);
+                                f0OfFrame.accept(i, specLog);
+                                zeroCrossOfFrame.accept(i, frame);
+                        };
+                        /* スペクトログラム全体は持たず，1フレームずつ処理する（ストリーミング時はブロックごとに読み込む） */
+                        if (streaming)
+                                new StreamingFrames(reader, fftSize, shiftSize).forEach(analyzeFrame);
+                        else
+                                new SlidingFrames(waveform, fftSize, shiftSize).forEach(analyzeFrame);
+
+                        /* データ系列を作成 */
+                        final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, f0.length)
+                                        .mapToObj(i -> new XYChart.Data<Number, Number>(i * shiftDuration,
+                                                        new_freq[i] * sampleRate / fftSize))
+                                        .collect(Collectors.toCollection(FXCollections::observableArrayList));
+
+                        /* データ系列に名前をつける */
+                        final XYChart.Series<Number, Number> series = new XYChart.Series<>("Waveform", data);
+
+                        chart.setTitle("f0");
+                        chart.setCreateSymbols(false);
+                        chart.setLegendVisible(false);
+                        chart.getData().add(series);
+
+                        /* グラフ描画 */
+                        final Scene scene = new Scene(chart, 800, 600);
+                        scene.getStylesheets().add("le4music.css");
+
+                        /* ウインドウ表示 */
+                        primaryStage.setScene(scene);
+                        primaryStage.setTitle(getClass().getName());
+                        primaryStage.show();
+
+                        /* チャートを画像ファイルへ出力 */
+                        Platform.runLater(() -> {
+                                final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
+                                                Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
+                                final WritableImage image = scene.snapshot(null);
+                                try {
+                                        ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
+                                                        new File(name_ext[0] + "." + name_ext[1]));
+                                } catch (IOException e) {
+                                        e.printStackTrace();
                                 }
-                        }
-                        if (zero_counter > 2 * new_freq[pointer] + 180) {
-                                new_freq[pointer] = 0;
-                        }
-                        pointer++;
+                        });
                 }
-
-                /* データ系列を作成 */
-                final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(0, f0.length)
-                                .mapToObj(i -> new XYChart.Data<Number, Number>(i * shiftDuration,
-                                                new_freq[i] * sampleRate / fftSize))
-                                .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-                /* データ系列に名前をつける */
-                final XYChart.Series<Number, Number> series = new XYChart.Series<>("Waveform", data);
-
-                /* X 軸を作成 */
-                final double duration = (specLog.length - 1) * shiftDuration;
-                final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
-                                /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
-                xAxis.setAnimated(false);
-
-                /* Y 軸を作成 */
-                final NumberAxis yAxis = new NumberAxis(/* axisLabel = */ "Frequency (Hz)", /* lowerBound = */ 0.0,
-                                /* upperBound = */ 600, /* tickUnit = */ Le4MusicUtils.autoTickUnit(600));
-                yAxis.setAnimated(false);
-
-                /* チャートを作成 */
-                final LineChartWithSpectrogram<Number, Number> chart = new LineChartWithSpectrogram<>(xAxis, yAxis);
-                chart.setParameters(specLog.length, fftSize2, nyquist);
-                Arrays.stream(specLog1).forEach(chart::addSpecLog); // グラフにスペクトログラム表示
-                chart.setTitle("f0");
-                chart.setCreateSymbols(false);
-                chart.setLegendVisible(false);
-                chart.getData().add(series);
-
-                /* グラフ描画 */
-                final Scene scene = new Scene(chart, 800, 600);
-                scene.getStylesheets().add("le4music.css");
-
-                /* ウインドウ表示 */
-                primaryStage.setScene(scene);
-                primaryStage.setTitle(getClass().getName());
-                primaryStage.show();
-
-                /* チャートを画像ファイルへ出力 */
-                Platform.runLater(() -> {
-                        final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(
-                                        Optional.ofNullable(cmd.getOptionValue("outfile")), getClass().getSimpleName());
-                        final WritableImage image = scene.snapshot(null);
-                        try {
-                                ImageIO.write(SwingFXUtils.fromFXImage(image, null), name_ext[1],
-                                                new File(name_ext[0] + "." + name_ext[1]));
-                        } catch (IOException e) {
-                                e.printStackTrace();
-                        }
-                });
         }
 
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+/**
+ * 対数振幅スペクトログラム (dB) を8ビットまたは16ビットに量子化して1本の連続した配列に格納するクラスです．
+ * 値は下限から上限までの範囲を等間隔に {@link #levels()} 段階に分けて表し，
+ * 下限未満（-Infinity を含む）と NaN は下限に，上限を超える値は上限に丸める．
+ * i番目のフレームのj番目の周波数ビンは配列の {@code i * bins() + j} 番目にある．
+ * {@code double} で持つ {@link Spectrogram} に比べ，16ビットでは1/4，8ビットでは1/8のメモリで済む．
+ * 表示には下限・上限を表示範囲に合わせた8ビット，振幅を解析に使うときは
+ * {@link #magnitudeLowerBound} から0 dBまでの16ビットを用いるとよい．
+ */
+public final class QuantizedSpectrogram {
+
+  /**
+   * 振幅を解析に使うときの量子化の下限 (dB)．
+   * 窓関数の和を1に正規化し，振幅が1以下の信号を変換すれば振幅は0 dBを超えないため，
+   * 上限を0 dBとした16ビットの量子化の刻みは約0.003 dB（相対誤差0.04%）になる．
+   */
+  public static final double magnitudeLowerBound = -200.0;
+
+  /** フレーム数 */
+  private final int frames;
+
+  /** 1フレームあたりの周波数ビン数 */
+  private final int bins;
+
+  /** 量子化のビット数 */
+  private final int bits;
+
+  /** 量子化の下限・上限 (dB) */
+  private final double lowerBound;
+  private final double upperBound;
+
+  /** 量子化の刻み (dB) とその逆数 */
+  private final double step;
+  private final double scale;
+
+  /** 行優先で並べた値（ビット数に応じてどちらか一方だけを持つ） */
+  private final byte[] data8;
+  private final short[] data16;
+
+  /** 量子化された値ごとの振幅（{@link #magnitudeRow} を初めて呼んだときに作る） */
+  private double[] magnitudes;
+
+  /**
+   * 全ての値が下限のスペクトログラムを作る．
+   *
+   * @param frames フレーム数
+   * @param bins 1フレームあたりの周波数ビン数
+   * @param lowerBound 量子化の下限 (dB)
+   * @param upperBound 量子化の上限 (dB)
+   * @param bits 量子化のビット数（8 または 16）
+   * @throws IllegalArgumentException 要素数が負，または配列に収まらないとき，
+   *         上限が下限より大きくないとき，ビット数が8でも16でもないとき
+   */
+  public QuantizedSpectrogram(final int frames, final int bins,
+                              final double lowerBound, final double upperBound, final int bits) {
+    if (frames < 0 || bins < 0 || (long) frames * bins > Integer.MAX_VALUE)
+      throw new IllegalArgumentException(
+        "invalid size: frames = " + frames + ", bins = " + bins
+      );
+    if (!(upperBound > lowerBound))
+      throw new IllegalArgumentException(
+        "upperBound must be larger than lowerBound: " +
+        "lowerBound = " + lowerBound + ", upperBound = " + upperBound
+      );
+    if (bits != 8 && bits != 16)
+      throw new IllegalArgumentException("bits must be 8 or 16: " + bits);
+    this.frames = frames;
+    this.bins = bins;
+    this.bits = bits;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.step = (upperBound - lowerBound) / ((1 << bits) - 1);
+    this.scale = ((1 << bits) - 1) / (upperBound - lowerBound);
+    this.data8 = bits == 8 ? new byte[frames * bins] : null;
+    this.data16 = bits == 16 ? new short[frames * bins] : null;
+  }
+
+  /**
+   * 対数振幅スペクトログラムを量子化する．
+   *
+   * @param specLog 対数振幅スペクトログラム (dB)
+   * @param lowerBound 量子化の下限 (dB)
+   * @param upperBound 量子化の上限 (dB)
+   * @param bits 量子化のビット数（8 または 16）
+   * @return 量子化されたスペクトログラム
+   */
+  public static final QuantizedSpectrogram of(final Spectrogram specLog,
+                                              final double lowerBound, final double upperBound,
+                                              final int bits) {
+    final QuantizedSpectrogram dst =
+      new QuantizedSpectrogram(specLog.frames(), specLog.bins(), lowerBound, upperBound, bits);
+    final double[] data = specLog.data();
+    for (int i = 0; i < dst.frames; i++)
+      dst.setRow(i, data, specLog.offset(i));
+    return dst;
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int frames() {
+    return frames;
+  }
+
+  /**
+   * 1フレームあたりの周波数ビン数を返す．
+   *
+   * @return 周波数ビン数
+   */
+  public final int bins() {
+    return bins;
+  }
+
+  /**
+   * 量子化のビット数を返す．
+   *
+   * @return ビット数（8 または 16）
+   */
+  public final int bits() {
+    return bits;
+  }
+
+  /**
+   * 量子化の段階数を返す．
+   *
+   * @return 段階数
+   */
+  public final int levels() {
+    return 1 << bits;
+  }
+
+  /**
+   * 量子化の下限を返す．
+   *
+   * @return 下限 (dB)
+   */
+  public final double lowerBound() {
+    return lowerBound;
+  }
+
+  /**
+   * 量子化の上限を返す．
+   *
+   * @return 上限 (dB)
+   */
+  public final double upperBound() {
+    return upperBound;
+  }
+
+  /**
+   * 量子化の刻みを返す．範囲内の値の誤差はこの半分以下である．
+   *
+   * @return 刻み (dB)
+   */
+  public final double step() {
+    return step;
+  }
+
+  /**
+   * 対数振幅を量子化する．
+   *
+   * @param value 対数振幅 (dB)
+   * @return 量子化された値（0 以上 {@link #levels()} 未満）
+   */
+  public final int quantize(final double value) {
+    return quantize(value, lowerBound, scale, (1 << bits) - 1);
+  }
+
+  /**
+   * 対数振幅を下限から刻みごとに量子化する．{@link SpectrogramTileCache} とも共通の規則である．
+   *
+   * @param value 対数振幅 (dB)
+   * @param lowerBound 量子化の下限 (dB)
+   * @param scale 量子化の刻みの逆数 (1/dB)
+   * @param max 量子化された値の最大値
+   * @return 量子化された値（0 以上 {@code max} 以下）
+   */
+  static final int quantize(final double value, final double lowerBound, final double scale, final int max) {
+    final double q = (value - lowerBound) * scale;
+    /* 下限未満（-Infinity を含む）と NaN は0に，上限を超える値は最大値にする */
+    return q > 0.0 ? Math.min(max, (int) (q + 0.5)) : 0;
+  }
+
+  /**
+   * 量子化された値を対数振幅に戻す．
+   *
+   * @param q 量子化された値（0 以上 {@link #levels()} 未満）
+   * @return 対数振幅 (dB)
+   */
+  public final double dequantize(final int q) {
+    return dequantize(q, lowerBound, step);
+  }
+
+  /**
+   * 量子化された値を対数振幅に戻す．{@link #quantize(double, double, double, int)} の逆である．
+   *
+   * @param q 量子化された値
+   * @param lowerBound 量子化の下限 (dB)
+   * @param step 量子化の刻み (dB)
+   * @return 対数振幅 (dB)
+   */
+  static final double dequantize(final int q, final double lowerBound, final double step) {
+    return lowerBound + q * step;
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの量子化された値を返す．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @return 量子化された値（0 以上 {@link #levels()} 未満）
+   */
+  public final int level(final int i, final int j) {
+    return at(i * bins + j);
+  }
+
+  private final int at(final int index) {
+    return data8 != null ? data8[index] & 0xff : data16[index] & 0xffff;
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を返す．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @return 対数振幅 (dB)
+   */
+  public final double get(final int i, final int j) {
+    return dequantize(level(i, j));
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を設定する．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @param value 対数振幅 (dB)
+   */
+  public final void set(final int i, final int j, final double value) {
+    final int q = quantize(value);
+    if (data8 != null)
+      data8[i * bins + j] = (byte) q;
+    else
+      data16[i * bins + j] = (short) q;
+  }
+
+  /**
+   * i番目のフレームを設定する．
+   *
+   * @param i フレーム番号
+   * @param src 対数振幅 (dB)（長さ {@link #bins()} 以上）
+   */
+  public final void setRow(final int i, final double[] src) {
+    setRow(i, src, 0);
+  }
+
+  /**
+   * i番目のフレームを設定する．
+   * 異なるフレームへの書き込みは複数のスレッドから同時に行ってよい．
+   *
+   * @param i フレーム番号
+   * @param src 対数振幅 (dB)
+   * @param offset {@code src} 上の先頭位置
+   */
+  public final void setRow(final int i, final double[] src, final int offset) {
+    final int base = i * bins;
+    final int max = (1 << bits) - 1;
+    for (int j = 0; j < bins; j++) {
+      final int v = quantize(src[offset + j], lowerBound, scale, max);
+      if (data8 != null)
+        data8[base + j] = (byte) v;
+      else
+        data16[base + j] = (short) v;
+    }
+  }
+
+  /**
+   * i番目のフレームの対数振幅を書き込む．
+   *
+   * @param i フレーム番号
+   * @param dst 出力先（長さ {@link #bins()} 以上）
+   * @return 出力先
+   */
+  public final double[] row(final int i, final double[] dst) {
+    final int base = i * bins;
+    for (int j = 0; j < bins; j++)
+      dst[j] = dequantize(at(base + j), lowerBound, step);
+    return dst;
+  }
+
+  /**
+   * j番目の周波数ビンの全フレームの対数振幅を書き込む．
+   *
+   * @param j 周波数ビン番号
+   * @param dst 出力先（長さ {@link #frames()} 以上）
+   * @return 出力先
+   */
+  public final double[] column(final int j, final double[] dst) {
+    for (int i = 0; i < frames; i++)
+      dst[i] = dequantize(at(i * bins + j), lowerBound, step);
+    return dst;
+  }
+
+  /**
+   * i番目のフレームの振幅（対数振幅を戻したもの）を書き込む．
+   * 下限に丸められた値は下限の振幅になる．
+   *
+   * @param i フレーム番号
+   * @param dst 出力先（長さ {@link #bins()} 以上）
+   * @return 出力先
+   */
+  public final double[] magnitudeRow(final int i, final double[] dst) {
+    double[] table = magnitudes;
+    if (table == null) {
+      table = new double[1 << bits];
+      for (int q = 0; q < table.length; q++)
+        table[q] = Math.pow(10.0, dequantize(q) / 20.0);
+      magnitudes = table;
+    }
+    final int base = i * bins;
+    for (int j = 0; j < bins; j++)
+      dst[j] = table[at(base + j)];
+    return dst;
+  }
+
+}
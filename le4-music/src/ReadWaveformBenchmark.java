@@ -0,0 +1,98 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * WAVデータのデコードの速度を測るベンチマークです．
+ * メモリ上に作った16bitステレオのPCMデータを，
+ * 従来の {@code jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils#readWaveformMonaural} と
+ * {@link WaveformDecoder} によるブロック単位の方法でそれぞれデコードし，処理時間とスループットを表示する．
+ * 対応する全ての形式について，両者の結果が一致することも確認する．
+ * ただし8bit符号なし整数はjarのデコーダと意図的に異なるため，{@code (x - 128) / 128.0} の平均と比べる．
+ *
+ * 使い方: {@code java ReadWaveformBenchmark [seconds] [repeats]}
+ */
+public final class ReadWaveformBenchmark {
+
+  private ReadWaveformBenchmark() {
+    throw new AssertionError("this class should not be instantiated");
+  }
+
+  public static final void main(final String[] args) throws IOException {
+    final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 600.0;
+    final int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    /* 8bit符号なし整数は (x - 128) / 128.0 の平均と一致することを確かめる */
+    {
+      final AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100.0f, 8, 2, 2, 44100.0f, false);
+      final int frames = 1 << 16;
+      final byte[] bytes = new byte[frames * 2];
+      new Random(1).nextBytes(bytes);
+      final double[] expected = new double[frames];
+      for (int i = 0; i < frames; i++)
+        expected[i] = (((bytes[2 * i] & 0xff) - 128) / 128.0 + ((bytes[2 * i + 1] & 0xff) - 128) / 128.0) / 2;
+      compare(format, frames, expected, WaveformDecoder.readWaveformMonaural(stream(bytes, format, frames)));
+    }
+
+    /* その他の形式で従来の方法と結果が一致することを確かめる */
+    final AudioFormat[] formats = {
+      new AudioFormat(44100.0f, 16, 1, true, false),
+      new AudioFormat(44100.0f, 16, 2, true, false),
+      new AudioFormat(44100.0f, 16, 3, true, true),
+      new AudioFormat(44100.0f, 24, 2, true, false),
+      new AudioFormat(44100.0f, 24, 2, true, true),
+      new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100.0f, 32, 2, 8, 44100.0f, false),
+    };
+    for (final AudioFormat format : formats) {
+      final int frames = 1 << 16;
+      final byte[] bytes = new byte[frames * format.getFrameSize()];
+      new Random(1).nextBytes(bytes);
+      if (format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT))
+        /* NaN を避けるため，指数部の上位ビットを0にする */
+        for (int i = format.isBigEndian() ? 0 : 3; i < bytes.length; i += 4)
+          bytes[i] &= (byte)0xbf;
+      compare(format, frames,
+              jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.readWaveformMonaural(stream(bytes, format, frames)),
+              WaveformDecoder.readWaveformMonaural(stream(bytes, format, frames)));
+    }
+    System.out.println("outputs are identical for all formats");
+
+    /* 44.1kHz，16bit，ステレオのPCMデータを作る */
+    final AudioFormat format = new AudioFormat(44100.0f, 16, 2, true, false);
+    final int frames = (int)Math.round(seconds * format.getSampleRate());
+    final byte[] bytes = new byte[frames * format.getFrameSize()];
+    new Random(0).nextBytes(bytes);
+    System.out.printf("%.1f seconds, %d bytes%n", seconds, bytes.length);
+
+    double[] expected = null;
+    double[] actual = null;
+    for (int r = 0; r < repeats; r++) {
+      long t0 = System.nanoTime();
+      expected = jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.readWaveformMonaural(stream(bytes, format, frames));
+      long t1 = System.nanoTime();
+      actual = WaveformDecoder.readWaveformMonaural(stream(bytes, format, frames));
+      long t2 = System.nanoTime();
+      System.out.printf("le4music: %8.1f ms (%7.1f MB/s)   block: %8.1f ms (%7.1f MB/s)%n",
+                        (t1 - t0) * 1e-6, bytes.length * 1e3 / (t1 - t0),
+                        (t2 - t1) * 1e-6, bytes.length * 1e3 / (t2 - t1));
+    }
+    compare(format, frames, expected, actual);
+    System.out.println("outputs are identical");
+  }
+
+  private static final AudioInputStream stream(final byte[] bytes, final AudioFormat format, final int frames) {
+    return new AudioInputStream(new ByteArrayInputStream(bytes), format, frames);
+  }
+
+  private static final void compare(final AudioFormat format, final int frames,
+                                    final double[] expected, final double[] actual) {
+    if (expected.length != actual.length)
+      throw new AssertionError(format + ": length mismatch: " + expected.length + " != " + actual.length);
+    for (int i = 0; i < frames; i++)
+      if (expected[i] != actual[i])
+        throw new AssertionError(format + ": mismatch at " + i + ": " + expected[i] + " != " + actual[i]);
+  }
+
+}
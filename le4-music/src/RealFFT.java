@@ -0,0 +1,227 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 実配列に対する高速フーリエ変換を行うクラスです．
+ * 変換長nは任意の正の整数でよい．
+ * nが偶数のときは長さnの実配列を長さn/2の複素配列とみなして {@link FFT} で変換し，
+ * その結果から長さn/2+1の片側スペクトルを組み立てる．
+ * nが奇数のときは虚部を0とした長さnの複素FFTを行う．
+ * スペクトルは実部・虚部を別々の {@code double[]} に格納する．
+ * 出力先の配列は呼び出し側が用意し，作業用の配列はスレッドごとに
+ * 一度だけ確保されるため，変換ごとに配列を確保しない．
+ * インスタンスは {@link #of(int)} により変換長ごとにキャッシュされ，
+ * 複数のスレッドから同時に使ってよい．
+ */
+public final class RealFFT {
+
+  /** 変換長をキーとするプランのキャッシュ */
+  private static final ConcurrentMap<Integer, RealFFT> plans = new ConcurrentHashMap<>();
+
+  /** 変換長（実数の個数） */
+  private final int size;
+
+  /** 複素FFT（変換長が偶数なら長さ size/2，奇数なら長さ size） */
+  private final FFT fft;
+
+  /** 後処理用の回転因子 cos(2πk/size), k = 0, ..., size/2 */
+  private final double[] cos;
+
+  /** 後処理用の回転因子 sin(2πk/size), k = 0, ..., size/2 */
+  private final double[] sin;
+
+  /** 作業用配列（interleaved 形式，スレッドごと） */
+  private final ThreadLocal<double[]> work;
+
+  /**
+   * 与えられた長さの変換のプランを返す．
+   * 同じ長さに対しては常に同じインスタンスを返す．
+   *
+   * @param size 変換長（実数の個数）
+   * @return 変換のプラン
+   * @throws IllegalArgumentException 変換長が正でないとき
+   */
+  public static final RealFFT of(final int size) {
+    final RealFFT plan = plans.get(size);
+    if (plan != null)
+      return plan;
+    /* 生成中に他の長さのプランを参照することがあるので computeIfAbsent は使わない */
+    final RealFFT created = new RealFFT(size);
+    final RealFFT existing = plans.putIfAbsent(size, created);
+    return existing != null ? existing : created;
+  }
+
+  private RealFFT(final int size) {
+    if (size <= 0)
+      throw new IllegalArgumentException("size must be positive: " + size);
+    this.size = size;
+    this.fft = FFT.of((size & 1) == 0 ? size >> 1 : size);
+    final int bins = (size >> 1) + 1;
+    cos = new double[bins];
+    sin = new double[bins];
+    for (int k = 0; k < bins; k++) {
+      final double theta = 2.0 * Math.PI * k / size;
+      cos[k] = Math.cos(theta);
+      sin[k] = Math.sin(theta);
+    }
+    work = ThreadLocal.withInitial(() -> new double[(size & 1) == 0 ? size : size << 1]);
+  }
+
+  /**
+   * 変換長を返す．
+   *
+   * @return 変換長（実数の個数）
+   */
+  public final int size() {
+    return size;
+  }
+
+  /**
+   * 片側スペクトルの長さ（{@code size() / 2 + 1}）を返す．
+   *
+   * @return 片側スペクトルの長さ
+   */
+  public final int bins() {
+    return (size >> 1) + 1;
+  }
+
+  /**
+   * 実配列をフーリエ変換し，片側スペクトルを書き込む．
+   * 入力配列の長さが変換長に満たない場合は，不足分を0とみなす．
+   * 入力配列は変更されない．
+   *
+   * @param src 入力実配列
+   * @param re スペクトルの実部の出力先（長さ {@link #bins()} 以上）
+   * @param im スペクトルの虚部の出力先（長さ {@link #bins()} 以上）
+   */
+  public final void forward(final double[] src, final double[] re, final double[] im) {
+    final int m = size >> 1;
+    if (re.length < m + 1 || im.length < m + 1)
+      throw new IllegalArgumentException(
+        "re.length and im.length must be at least " + (m + 1) + ": " +
+        "re.length = " + re.length + ", im.length = " + im.length
+      );
+
+    final double[] work = this.work.get();
+    final int n = Math.min(src.length, size);
+
+    if ((size & 1) != 0) {
+      /* 奇数長：虚部を0とした複素FFT */
+      for (int i = 0; i < n; i++) {
+        work[2 * i] = src[i];
+        work[2 * i + 1] = 0.0;
+      }
+      Arrays.fill(work, 2 * n, 2 * size, 0.0);
+      fft.forward(work);
+      for (int k = 0; k <= m; k++) {
+        re[k] = work[2 * k];
+        im[k] = work[2 * k + 1];
+      }
+      return;
+    }
+
+    /* 偶数番目を実部，奇数番目を虚部とする複素配列として変換 */
+    System.arraycopy(src, 0, work, 0, n);
+    Arrays.fill(work, n, size, 0.0);
+    fft.forward(work);
+
+    /* 偶数番目・奇数番目のスペクトルに分離して合成 */
+    for (int k = 0; k <= m; k++) {
+      final int k0 = k == m ? 0 : k;
+      final int k1 = k == 0 ? 0 : m - k;
+      final double ar = work[2 * k0];
+      final double ai = work[2 * k0 + 1];
+      final double br = work[2 * k1];
+      final double bi = work[2 * k1 + 1];
+      final double er = 0.5 * (ar + br);
+      final double ei = 0.5 * (ai - bi);
+      final double or = 0.5 * (ai + bi);
+      final double oi = -0.5 * (ar - br);
+      re[k] = er + cos[k] * or + sin[k] * oi;
+      im[k] = ei + cos[k] * oi - sin[k] * or;
+    }
+  }
+
+  /**
+   * 片側スペクトルを逆フーリエ変換し，実配列を書き込む．
+   * 結果は変換長で割って正規化される．
+   * 入力配列は変更されない．
+   *
+   * @param re スペクトルの実部（長さ {@link #bins()} 以上）
+   * @param im スペクトルの虚部（長さ {@link #bins()} 以上）
+   * @param dst 実配列の出力先（長さ {@link #size()} 以上）
+   */
+  public final void inverse(final double[] re, final double[] im, final double[] dst) {
+    final int m = size >> 1;
+    if (re.length < m + 1 || im.length < m + 1)
+      throw new IllegalArgumentException(
+        "re.length and im.length must be at least " + (m + 1) + ": " +
+        "re.length = " + re.length + ", im.length = " + im.length
+      );
+    if (dst.length < size)
+      throw new IllegalArgumentException(
+        "dst.length must be at least " + size + ": dst.length = " + dst.length
+      );
+
+    if ((size & 1) != 0) {
+      /* 奇数長：複素共役で両側スペクトルを復元して複素逆FFT */
+      final double[] work = this.work.get();
+      for (int k = 0; k <= m; k++) {
+        work[2 * k] = re[k];
+        work[2 * k + 1] = im[k];
+      }
+      for (int k = m + 1; k < size; k++) {
+        work[2 * k] = re[size - k];
+        work[2 * k + 1] = -im[size - k];
+      }
+      fft.inverse(work);
+      for (int i = 0; i < size; i++)
+        dst[i] = work[2 * i];
+      return;
+    }
+
+    /* 偶数番目・奇数番目のスペクトルを復元し，dst 上に複素配列として並べる */
+    for (int k = 0; k < m; k++) {
+      final double ar = re[k];
+      final double ai = im[k];
+      final double br = re[m - k];
+      final double bi = im[m - k];
+      final double er = 0.5 * (ar + br);
+      final double ei = 0.5 * (ai - bi);
+      final double dr = ar - br;
+      final double di = ai + bi;
+      final double or = 0.5 * (dr * cos[k] - di * sin[k]);
+      final double oi = 0.5 * (dr * sin[k] + di * cos[k]);
+      dst[2 * k] = er - oi;
+      dst[2 * k + 1] = ei + or;
+    }
+    fft.inverse(dst);
+  }
+
+  /**
+   * スペクトルの振幅を求める．
+   *
+   * @param re スペクトルの実部
+   * @param im スペクトルの虚部
+   * @param dst 振幅の出力先（長さ {@code re.length} 以上）
+   */
+  public static final void abs(final double[] re, final double[] im, final double[] dst) {
+    for (int k = 0; k < re.length; k++)
+      dst[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+  }
+
+  /**
+   * スペクトルの対数振幅 (dB) を求める．
+   * {@code 20.0 * Math.log10(c.abs())} と同じ値を返す．
+   *
+   * @param re スペクトルの実部
+   * @param im スペクトルの虚部
+   * @param dst 対数振幅の出力先（長さ {@code re.length} 以上）
+   */
+  public static final void logAbs(final double[] re, final double[] im, final double[] dst) {
+    for (int k = 0; k < re.length; k++)
+      dst[k] = 20.0 * Math.log10(Math.sqrt(re[k] * re[k] + im[k] * im[k]));
+  }
+
+}
@@ -1,8 +1,6 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Optional;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
@@ -12,11 +10,7 @@ import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
-import javafx.scene.chart.XYChart;
-import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
-import javafx.collections.ObservableList;
-import javafx.collections.FXCollections;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -79,14 +73,6 @@ public final class RecMonitorWaveform extends Application {
     /* データ処理スレッド */
     final ExecutorService executor = Executors.newSingleThreadExecutor();
 
-    /* データ系列を作成 */
-    final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(-recorder.getFrameSize(), 0)
-        .mapToDouble(i -> i / recorder.getSampleRate()).mapToObj(t -> new XYChart.Data<Number, Number>(t, 0.0))
-        .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-    /* データ系列に名前をつける */
-    final XYChart.Series<Number, Number> series = new XYChart.Series<>("Waveform", data);
-
     /* 波形リアルタイム表示 */
     /* 軸を作成 */
     /* 時間軸（横軸） */
@@ -96,8 +82,8 @@ public final class RecMonitorWaveform extends Application {
     final NumberAxis yAxis = new NumberAxis(/* axisLabel = */ "Amplitude", /* lowerBound = */ -1.0,
         /* upperBound = */ +1.0, /* tickUnit = */ Le4MusicUtils.autoTickUnit(1.0 * 2));
 
-    /* チャートを作成 */
-    final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+    /* チャートを作成（波形はデータ系列を作らずに画素単位で間引いて描画する） */
+    final LineChartWithWaveform chart = new LineChartWithWaveform(xAxis, yAxis);
     chart.setTitle("Waveform");
     chart.setLegendVisible(false);
     /* データの追加・削除時にアニメーション（フェードイン・アウトなど）しない */
@@ -105,8 +91,6 @@ public final class RecMonitorWaveform extends Application {
     /* データアイテムに対してシンボルを作成しない */
     chart.setCreateSymbols(false);
 
-    chart.getData().add(series);
-
     /* 描画ウインドウ作成 */
     final Scene scene = new Scene(chart, 800, 600);
     scene.getStylesheets().add("le4music.css");
@@ -116,17 +100,9 @@ public final class RecMonitorWaveform extends Application {
     primaryStage.setOnCloseRequest(req -> executor.shutdown());
     primaryStage.show();
 
-    recorder.addAudioFrameListener((frame, position) -> executor.execute(() -> {
-      IntStream.range(0, recorder.getFrameSize()).forEach(i -> {
-        final XYChart.Data<Number, Number> datum = data.get(i);
-        datum.setXValue((i + position - recorder.getFrameSize()) / recorder.getSampleRate());
-        datum.setYValue(frame[i]);
-      });
-      final double posInSec = position / recorder.getSampleRate();
-      xAxis.setLowerBound(posInSec - frameDuration);
-      xAxis.setUpperBound(posInSec);
-      
-    }));
+    /* 最新フレームの波形を描画（時間軸もフレームの範囲に合わせる） */
+    recorder.addAudioFrameListener((frame, position) -> chart.offerFrame(
+        frame, (position - recorder.getFrameSize()) / recorder.getSampleRate(), recorder.getSampleRate()));
 
     /* 録音開始 */
     Platform.runLater(recorder::start);
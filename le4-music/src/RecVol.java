@@ -8,7 +8,6 @@ import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
 import java.util.stream.Stream;
-import java.util.stream.Collectors;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -117,10 +116,10 @@ public final class RecVol extends Application {
     /* フレーム数 */
     final int frames = (int) Math.round(duration / interval);
 
-    /* データ系列を作成 */
-    final ObservableList<XYChart.Data<Number, Number>> data_vol = IntStream.range(0, 1)
-    .mapToObj(i -> new XYChart.Data<Number, Number>(0.5, 0))
-    .collect(Collectors.toCollection(FXCollections::observableArrayList));
+    /* データ系列を作成（音量の棒の上端と下端．点は作り直さずに上端の値だけを書き換える） */
+    final XYChart.Data<Number, Number> datum = new XYChart.Data<Number, Number>(0.5, -100.0);
+    final ObservableList<XYChart.Data<Number, Number>> data_vol =
+        FXCollections.observableArrayList(datum, new XYChart.Data<Number, Number>(0.5, -100.0));
 
     /* データ系列に名前をつける */
     final XYChart.Series<Number, Number> series_vol = new XYChart.Series<>(data_vol);
@@ -172,11 +171,7 @@ public final class RecVol extends Application {
         final double posInSec = position / recorder.getSampleRate();
         final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
         final double logRms = 20.0 * Math.log10(rms);
-        XYChart.Data<Number, Number> datum = new XYChart.Data<Number, Number>(0.5,logRms);
-        XYChart.Data<Number, Number> datum_0 = new XYChart.Data<Number, Number>(0.5,-100.0);
-
-        data_vol.clear();
-        data_vol.addAll(datum, datum_0);
+        datum.setYValue(logRms);
 
         
 
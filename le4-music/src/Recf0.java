@@ -1,11 +1,7 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.io.FileWriter;
 import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
-import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.ConcurrentModificationException;
@@ -19,8 +15,6 @@ import javafx.scene.Scene;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
-import javafx.collections.ObservableList;
-import javafx.collections.FXCollections;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -50,7 +44,8 @@ public final class Recf0 extends Application {
         options.addOption("v", "verbose", false, "Verbose output");
         options.addOption("m", "mixer", true, "Index of Mixer object that supplies a SourceDataLine object. "
                 + "To check the proper index, use CheckAudioSystem");
-        options.addOption("o", "outfile", true, "Output file");
+        options.addOption("o", "outfile", true, "Output file of the f0 track (Default: f0.txt)");
+        options.addOption(null, "binary", false, "Write the f0 track in the binary format instead of CSV");
         options.addOption("r", "rate", true, "Sampling rate [Hz]");
         options.addOption("f", "frame", true, "Frame duration [seconds]");
         options.addOption("i", "interval", true, "Frame update interval [seconds]");
@@ -119,13 +114,11 @@ public final class Recf0 extends Application {
         final double[] window = MathArrays.normalizeArray(Le4MusicUtils.hanning(player.getFrameSize()), 1.0);
 
 
-        /* データ系列を作成 */
-        final ObservableList<XYChart.Data<Number, Number>> data = IntStream.range(-player.getFrameSize(), 0)
-                .mapToDouble(i -> i / player.getSampleRate()).mapToObj(t -> new XYChart.Data<Number, Number>(t, 0.0))
-                .collect(Collectors.toCollection(FXCollections::observableArrayList));
+        /* データ系列を作成（表示範囲の点だけを保持する．基本周波数は 0.02 秒ごとの点で描く） */
+        final RingChartSeries data = new RingChartSeries((int) Math.ceil(duration / 0.02) + 8, duration, 0.0);
 
         /* データ系列に名前をつける */
-        final XYChart.Series<Number, Number> series = new XYChart.Series<>("f0", data);
+        final XYChart.Series<Number, Number> series = new XYChart.Series<>("f0", data.data());
 
         /* 時間軸（横軸） */
         final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ -frameDuration,
@@ -149,15 +142,31 @@ public final class Recf0 extends Application {
         String[] pitch = new String[] { "ド", "ド#", "レ", "ミ♭", "ミ", "ファ", "ファ#", "ソ", "ソ#", "ラ", "シ♭", "シ" };
 
 
+        /* 基本周波数の記録（書き出しは専用のスレッドで行う） */
+        final F0TrackWriter f0Log = new F0TrackWriter(
+                new File(Optional.ofNullable(cmd.getOptionValue("outfile")).orElse("f0.txt")),
+                cmd.hasOption("binary") ? F0TrackWriter.Format.BINARY : F0TrackWriter.Format.CSV);
+
         /* 描画ウインドウ作成 */
         final Scene scene = new Scene(chart, 800, 600);
         scene.getStylesheets().add("le4music.css");
         primaryStage.setScene(scene);
         primaryStage.setTitle(getClass().getName());
         /* ウインドウを閉じたときに他スレッドも停止させる */
-        primaryStage.setOnCloseRequest(req -> executor.shutdown());
+        primaryStage.setOnCloseRequest(req -> {
+            executor.shutdown();
+            try {
+                f0Log.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
         primaryStage.show();
 
+        /* 基本周波数の推定器（窓関数と作業用配列を使い回す） */
+        final LivePitchTracker pitchTracker = new LivePitchTracker(player.getSampleRate(), player.getFrameSize(),
+                shiftSize, 500.0);
+
         player.addAudioFrameListener((frame, position) -> Platform.runLater(() -> {
             final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
             final double logRms = 20.0 * Math.log10(rms);
@@ -168,85 +177,19 @@ public final class Recf0 extends Application {
             /* スペクトログラム描画 */
             chart.addSpectrum(spectrum);
 
-            final int fftSize_f0 = 1 << Le4MusicUtils.nextPow2(player.getFrameSize());
-            final double[] window_f0 = MathArrays
-                    .normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(player.getFrameSize()), fftSize_f0), 1.0);
-            final Stream<Complex[]> spectrogram_f0 = Le4MusicUtils.sliding(frame, window_f0, shiftSize)
-                    .map(f -> Le4MusicUtils.rfft(f));
-            double[][] specLog_f0 = spectrogram_f0.map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                    .toArray(n -> new double[n][]);
-            double[] freq0 = new double[specLog_f0.length];
-            for (int m = 0; m < specLog_f0.length; m++) {
-                for (int k = 0; k < specLog_f0[m].length; k++) {
-                        if (k * player.getSampleRate() / fftSize_f0 > 500.0) {
-                                specLog_f0[m][k] = 0.0;
-                        }
-                }
-                freq0[m] = Le4MusicUtils.argmax(specLog_f0[m]);
-            }
-            double min = freq0[0];
-            for (int z = 0; z < freq0.length; z++) {
-                if (min > freq0[z]) {
-                    min = freq0[z];
-                }
-            }
+            double f0 = pitchTracker.f0(frame);
             xAxis.setLowerBound(posInSec - duration);
             xAxis.setUpperBound(posInSec);
-            if (posInSec > frameDuration) {
-                data.remove(0, 1);
-            }
             if (logRms < -100) {
-                min = 0;
+                f0 = 0;
+            }
+            if ((position / 320) % 8 == 0) {
+                f0Log.append(posInSec, f0);
+                for (int m = 0; m < 8; m++)
+                    data.add(posInSec + 0.02 * m, f0);
+                int noteNum = (int) Math.round(Le4MusicUtils.hz2nn(f0));
+                System.out.println(pitch[noteNum % 12]);
             }
-            try{
-                FileWriter fw = new FileWriter("f0.txt");
-                if ((position / 320) % 8 == 0) {
-                    XYChart.Data<Number, Number> datum = new XYChart.Data<Number, Number>(posInSec,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.02,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.04,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.06,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.08,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.10,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.12,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    datum = new XYChart.Data<Number, Number>(posInSec + 0.14,
-                                    min * player.getSampleRate() / fftSize_f0);
-                    fw.write(String.valueOf(min * player.getSampleRate() / fftSize_f0));
-                    data.add(datum);
-                    int noteNum = (int) Math.round(
-                                    Le4MusicUtils.hz2nn(min * player.getSampleRate() / fftSize_f0));
-                    System.out.println(pitch[noteNum % 12]);
-                }
-                if(posInSec == 273){
-                        fw.close();
-                    }
-        }
-                catch(IOException ex) {
-                        ex.printStackTrace();
-                }
-            
-            
-
         }));
         /* 録音開始 */
     Platform.runLater(player::start);
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.XYChart;
+
+/**
+ * 直近の一定個数の点だけを保持するグラフのデータ系列です．
+ * 点は生成時に容量分だけ作られ，{@link #add} は最も古い点の座標を書き換えて使い回す．
+ * リストの要素の追加・削除を行わないため，記録が長くなってもメモリ使用量とシーングラフの大きさは一定である．
+ * リスト上の順序は時刻順にならないので，点を横軸の値で並べ替えて描画するグラフ
+ * （{@link javafx.scene.chart.LineChart.SortingPolicy#X_AXIS}，{@link javafx.scene.chart.LineChart} の既定）で用いること．
+ * JavaFXのスレッドでのみ操作すること．
+ */
+public final class RingChartSeries {
+
+  private final ObservableList<XYChart.Data<Number, Number>> data;
+
+  /** 次に書き換える点の位置 */
+  private int next;
+
+  /**
+   * データ系列を作る．初期状態の点は横軸の [-span, 0) に等間隔に並べる．
+   *
+   * @param capacity 保持する点の数
+   * @param span 初期状態の点を並べる横軸の幅
+   * @param y 初期状態の点の縦軸の値
+   */
+  public RingChartSeries(final int capacity, final double span, final double y) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    final List<XYChart.Data<Number, Number>> points = new ArrayList<>(capacity);
+    for (int i = 0; i < capacity; i++)
+      points.add(new XYChart.Data<Number, Number>(-span + i * span / capacity, y));
+    this.data = FXCollections.observableArrayList(points);
+  }
+
+  /**
+   * 保持する点の数を返す．
+   *
+   * @return 点の数
+   */
+  public final int capacity() {
+    return data.size();
+  }
+
+  /**
+   * グラフに登録するデータのリストを返す．要素の追加・削除はしないこと．
+   *
+   * @return データのリスト
+   */
+  public final ObservableList<XYChart.Data<Number, Number>> data() {
+    return data;
+  }
+
+  /**
+   * 最も古い点を新しい点で置き換える．
+   *
+   * @param x 横軸の値
+   * @param y 縦軸の値
+   */
+  public final void add(final double x, final double y) {
+    final XYChart.Data<Number, Number> datum = data.get(next);
+    datum.setXValue(x);
+    datum.setYValue(y);
+    next = next + 1 == data.size() ? 0 : next + 1;
+  }
+
+}
@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 短時間フーリエ変換を複数のスレッドで並列に行うクラスです．
+ * フレームの範囲を {@link ForkJoinPool} 上で再帰的に分割し，
+ * 各タスクはフレーム・スペクトル用の配列を1組だけ確保して，
+ * 振幅を {@link Spectrogram} （または {@link QuantizedSpectrogram}，{@link MappedSpectrogram}）の
+ * 該当する行に直接書き込む．
+ * フレームの切り出しは {@link SlidingFrames} と同じであり，
+ * 変換長は窓関数の長さと等しい．
+ */
+public final class STFT {
+
+  /** これより少ないフレーム数の範囲は分割しない */
+  private static final int MIN_FRAMES_PER_TASK = 16;
+
+  /** 窓関数 */
+  private final double[] window;
+
+  /** 窓関数のシフト長 */
+  private final int shiftSize;
+
+  /** 実行に用いるスレッドプール */
+  private final ForkJoinPool pool;
+
+  /**
+   * 共通の {@link ForkJoinPool} を用いる短時間フーリエ変換を作る．
+   *
+   * @param window 窓関数（長さが変換長になる）
+   * @param shiftSize 窓関数のシフト長
+   */
+  public STFT(final double[] window, final int shiftSize) {
+    this(window, shiftSize, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * 指定した {@link ForkJoinPool} を用いる短時間フーリエ変換を作る．
+   *
+   * @param window 窓関数（長さが変換長になる）
+   * @param shiftSize 窓関数のシフト長
+   * @param pool 実行に用いるスレッドプール
+   */
+  public STFT(final double[] window, final int shiftSize, final ForkJoinPool pool) {
+    if (shiftSize <= 0)
+      throw new IllegalArgumentException("shiftSize must be positive: " + shiftSize);
+    this.window = window;
+    this.shiftSize = shiftSize;
+    this.pool = pool;
+  }
+
+  /**
+   * 1フレームあたりの周波数ビン数を返す．
+   *
+   * @return 周波数ビン数
+   */
+  public final int bins() {
+    return (window.length >> 1) + 1;
+  }
+
+  /**
+   * 振幅スペクトログラムを求める．
+   *
+   * @param x 入力信号
+   * @return 振幅スペクトログラム
+   */
+  public final Spectrogram magnitude(final double[] x) {
+    return compute(x, false);
+  }
+
+  /**
+   * 対数振幅スペクトログラム (dB) を求める．
+   *
+   * @param x 入力信号
+   * @return 対数振幅スペクトログラム
+   */
+  public final Spectrogram logMagnitude(final double[] x) {
+    return compute(x, true);
+  }
+
+  /**
+   * 対数振幅スペクトログラム (dB) を量子化して求める．
+   * {@code double} のスペクトログラムを経由せず，各フレームを直接量子化して書き込む．
+   *
+   * @param x 入力信号
+   * @param lowerBound 量子化の下限 (dB)
+   * @param upperBound 量子化の上限 (dB)
+   * @param bits 量子化のビット数（8 または 16）
+   * @return 量子化された対数振幅スペクトログラム
+   */
+  public final QuantizedSpectrogram logMagnitude(final double[] x,
+                                                 final double lowerBound, final double upperBound,
+                                                 final int bits) {
+    final SlidingFrames frames = new SlidingFrames(x, window, shiftSize);
+    final QuantizedSpectrogram dst =
+      new QuantizedSpectrogram(frames.count(), bins(), lowerBound, upperBound, bits);
+    pool.invoke(new Task(frames, null, dst::setRow, true, grain(frames), 0, frames.count()));
+    return dst;
+  }
+
+  /**
+   * 対数振幅スペクトログラム (dB) をメモリマップしたファイルに求める．
+   * ヒープには各タスクの作業用配列しか確保しない．
+   *
+   * @param x 入力信号
+   * @param file 書き込むファイル（既にあれば作り直す）．null なら一時ファイルを用いる
+   * @return 対数振幅スペクトログラム（使い終わったら閉じること）
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public final MappedSpectrogram logMagnitude(final double[] x, final File file) throws IOException {
+    final SlidingFrames frames = new SlidingFrames(x, window, shiftSize);
+    final MappedSpectrogram dst = file != null
+      ? MappedSpectrogram.create(file, frames.count(), bins())
+      : MappedSpectrogram.createTemp(frames.count(), bins());
+    pool.invoke(new Task(frames, null, dst::setRow, true, grain(frames), 0, frames.count()));
+    return dst;
+  }
+
+  private final Spectrogram compute(final double[] x, final boolean log) {
+    final SlidingFrames frames = new SlidingFrames(x, window, shiftSize);
+    final Spectrogram dst = new Spectrogram(frames.count(), bins());
+    pool.invoke(new Task(frames, dst, null, log, grain(frames), 0, frames.count()));
+    return dst;
+  }
+
+  /* 1スレッドあたり数個のタスクになるように分割の粒度を決める */
+  private final int grain(final SlidingFrames frames) {
+    return Math.max(MIN_FRAMES_PER_TASK, frames.count() / (pool.getParallelism() * 4));
+  }
+
+  /** フレームの範囲 [from, to) を処理するタスク */
+  private static final class Task extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SlidingFrames frames;
+    private final Spectrogram dst;
+    /** 対数振幅を1フレームずつ渡す先（{@code dst} が null のとき） */
+    private final SlidingFrames.FrameConsumer rows;
+    private final boolean log;
+    private final int grain;
+    private final int from;
+    private final int to;
+
+    Task(final SlidingFrames frames, final Spectrogram dst, final SlidingFrames.FrameConsumer rows,
+         final boolean log, final int grain, final int from, final int to) {
+      this.frames = frames;
+      this.dst = dst;
+      this.rows = rows;
+      this.log = log;
+      this.grain = grain;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected final void compute() {
+      if (to - from > grain) {
+        final int mid = (from + to) >>> 1;
+        invokeAll(new Task(frames, dst, rows, log, grain, from, mid),
+                  new Task(frames, dst, rows, log, grain, mid, to));
+        return;
+      }
+      final RealFFT rfft = RealFFT.of(frames.frameSize());
+      final int bins = rfft.bins();
+      final double[] frame = new double[frames.frameSize()];
+      final double[] re = new double[bins];
+      final double[] im = new double[bins];
+      if (dst == null) {
+        for (int i = from; i < to; i++) {
+          frames.frame(i, frame);
+          rfft.forward(frame, re, im);
+          RealFFT.logAbs(re, im, re);
+          rows.accept(i, re);
+        }
+        return;
+      }
+      final double[] data = dst.data();
+      for (int i = from; i < to; i++) {
+        frames.frame(i, frame);
+        rfft.forward(frame, re, im);
+        final int offset = dst.offset(i);
+        if (log)
+          for (int k = 0; k < bins; k++)
+            data[offset + k] = 20.0 * Math.log10(Math.sqrt(re[k] * re[k] + im[k] * im[k]));
+        else
+          for (int k = 0; k < bins; k++)
+            data[offset + k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+      }
+    }
+  }
+
+}
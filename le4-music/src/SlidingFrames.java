@@ -0,0 +1,242 @@
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 配列を窓関数で切り出したフレームの列を表すクラスです．
+ * {@link Le4MusicUtils#sliding(double[], double[], int)} と同じフレームを与えるが，
+ * フレームごとに配列を確保せず，呼び出し側またはスプリッテレータが持つ
+ * 再利用可能なバッファに窓掛けした値を書き込む．
+ * 配列の末尾を越える部分は0で埋められる．
+ * 元の配列はコピーされないので，走査中に変更してはならない．
+ */
+public final class SlidingFrames {
+
+  /**
+   * フレームを受け取るコールバックです．
+   * 渡される配列は次のフレームで上書きされるため，保持してはならない．
+   */
+  @FunctionalInterface
+  public interface FrameConsumer {
+    /**
+     * @param index フレーム番号
+     * @param frame 窓掛けされたフレーム
+     */
+    void accept(int index, double[] frame);
+  }
+
+  /**
+   * フレームのスペクトルを受け取るコールバックです．
+   * 渡される配列は次のフレームで上書きされるため，保持してはならない．
+   */
+  @FunctionalInterface
+  public interface SpectrumConsumer {
+    /**
+     * @param index フレーム番号
+     * @param re スペクトルの実部
+     * @param im スペクトルの虚部
+     */
+    void accept(int index, double[] re, double[] im);
+  }
+
+  /** 切り出される配列 */
+  private final double[] x;
+
+  /** 窓関数 */
+  private final double[] window;
+
+  /** 窓関数のシフト長 */
+  private final int shiftSize;
+
+  /** フレーム数 */
+  private final int count;
+
+  /**
+   * 窓関数を用いたフレーム列を作る．
+   *
+   * @param x 切り出される配列
+   * @param window 窓関数
+   * @param shiftSize 窓関数のシフト長
+   * @throws IllegalArgumentException シフト長が正でないとき
+   */
+  public SlidingFrames(final double[] x, final double[] window, final int shiftSize) {
+    if (shiftSize <= 0)
+      throw new IllegalArgumentException("shiftSize must be positive: " + shiftSize);
+    this.x = x;
+    this.window = window;
+    this.shiftSize = shiftSize;
+    this.count = x.length / shiftSize;
+  }
+
+  /**
+   * 矩形窓を用いたフレーム列を作る．
+   *
+   * @param x 切り出される配列
+   * @param frameSize フレーム長
+   * @param shiftSize 窓関数のシフト長
+   * @throws IllegalArgumentException シフト長が正でないとき
+   */
+  public SlidingFrames(final double[] x, final int frameSize, final int shiftSize) {
+    this(x, rectangular(frameSize), shiftSize);
+  }
+
+  private static final double[] rectangular(final int frameSize) {
+    final double[] window = new double[frameSize];
+    Arrays.fill(window, 1.0);
+    return window;
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int count() {
+    return count;
+  }
+
+  /**
+   * フレーム長（窓関数の長さ）を返す．
+   *
+   * @return フレーム長
+   */
+  public final int frameSize() {
+    return window.length;
+  }
+
+  /**
+   * 窓関数のシフト長を返す．
+   *
+   * @return シフト長
+   */
+  public final int shiftSize() {
+    return shiftSize;
+  }
+
+  /**
+   * i番目のフレームを窓掛けして書き込む．
+   *
+   * @param i フレーム番号
+   * @param dst 出力先（長さ {@link #frameSize()} 以上）
+   */
+  public final void frame(final int i, final double[] dst) {
+    final int from = i * shiftSize;
+    final int n = Math.max(0, Math.min(window.length, x.length - from));
+    for (int k = 0; k < n; k++)
+      dst[k] = x[from + k] * window[k];
+    Arrays.fill(dst, n, window.length, 0.0);
+  }
+
+  /**
+   * 全てのフレームを順に処理する．
+   * フレーム用の配列は1つだけ確保され，使い回される．
+   *
+   * @param action 各フレームに対する処理
+   */
+  public final void forEach(final FrameConsumer action) {
+    final double[] buffer = new double[window.length];
+    for (int i = 0; i < count; i++) {
+      frame(i, buffer);
+      action.accept(i, buffer);
+    }
+  }
+
+  /**
+   * 全てのフレームを順にフーリエ変換し，片側スペクトルを処理する．
+   * フレームとスペクトル用の配列はそれぞれ1つだけ確保され，使い回される．
+   * 変換長はフレーム長と等しい．
+   *
+   * @param action 各フレームのスペクトルに対する処理
+   */
+  public final void forEachSpectrum(final SpectrumConsumer action) {
+    final RealFFT rfft = RealFFT.of(window.length);
+    final double[] re = new double[rfft.bins()];
+    final double[] im = new double[rfft.bins()];
+    forEach((i, frame) -> {
+      rfft.forward(frame, re, im);
+      action.accept(i, re, im);
+    });
+  }
+
+  /**
+   * フレームのストリームを返す．
+   * ストリームの要素は分割された範囲ごとに使い回される配列であり，
+   * 次の要素が渡されると上書きされる．
+   * 要素を保持する必要があるときは {@link Le4MusicUtils#sliding(double[], double[], int)} を用いる．
+   *
+   * @return フレームのストリーム
+   */
+  public final Stream<double[]> stream() {
+    return StreamSupport.stream(spliterator(0, count), false);
+  }
+
+  /**
+   * 指定された範囲のフレームを与えるスプリッテレータを返す．
+   *
+   * @param from 最初のフレーム番号（含む）
+   * @param to 最後のフレーム番号（含まない）
+   * @return フレームのスプリッテレータ
+   */
+  public final Spliterator<double[]> spliterator(final int from, final int to) {
+    return new FrameSpliterator(from, to);
+  }
+
+  /** 範囲ごとにバッファを1つ持つスプリッテレータ */
+  private final class FrameSpliterator implements Spliterator<double[]> {
+
+    private int index;
+    private final int end;
+    private double[] buffer;
+
+    FrameSpliterator(final int from, final int to) {
+      this.index = from;
+      this.end = to;
+    }
+
+    @Override
+    public final boolean tryAdvance(final Consumer<? super double[]> action) {
+      if (index >= end)
+        return false;
+      if (buffer == null)
+        buffer = new double[window.length];
+      frame(index++, buffer);
+      action.accept(buffer);
+      return true;
+    }
+
+    @Override
+    public final void forEachRemaining(final Consumer<? super double[]> action) {
+      if (index >= end)
+        return;
+      if (buffer == null)
+        buffer = new double[window.length];
+      for (; index < end; index++) {
+        frame(index, buffer);
+        action.accept(buffer);
+      }
+    }
+
+    @Override
+    public final Spliterator<double[]> trySplit() {
+      final int mid = (index + end) >>> 1;
+      if (mid <= index)
+        return null;
+      final Spliterator<double[]> prefix = new FrameSpliterator(index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public final long estimateSize() {
+      return end - index;
+    }
+
+    @Override
+    public final int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * 振幅スペクトログラムを1本の連続した配列に格納するクラスです．
+ * i番目のフレームのj番目の周波数ビンは {@code data()[i * bins() + j]} にある．
+ * フレームごとに配列を持つ {@code double[][]} に比べ，確保が1回で済み，
+ * 走査もキャッシュに沿って行える．
+ */
+public final class Spectrogram {
+
+  /** フレーム数 */
+  private final int frames;
+
+  /** 1フレームあたりの周波数ビン数 */
+  private final int bins;
+
+  /** 行優先で並べた値 */
+  private final double[] data;
+
+  /**
+   * 0で初期化されたスペクトログラムを作る．
+   *
+   * @param frames フレーム数
+   * @param bins 1フレームあたりの周波数ビン数
+   * @throws IllegalArgumentException 要素数が負，または配列に収まらないとき
+   */
+  public Spectrogram(final int frames, final int bins) {
+    if (frames < 0 || bins < 0 || (long) frames * bins > Integer.MAX_VALUE)
+      throw new IllegalArgumentException(
+        "invalid size: frames = " + frames + ", bins = " + bins
+      );
+    this.frames = frames;
+    this.bins = bins;
+    this.data = new double[frames * bins];
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int frames() {
+    return frames;
+  }
+
+  /**
+   * 1フレームあたりの周波数ビン数を返す．
+   *
+   * @return 周波数ビン数
+   */
+  public final int bins() {
+    return bins;
+  }
+
+  /**
+   * 行優先で並べた値の配列を返す．
+   * 返される配列はこのオブジェクトと共有される．
+   *
+   * @return 値の配列
+   */
+  public final double[] data() {
+    return data;
+  }
+
+  /**
+   * i番目のフレームの先頭の {@link #data()} 上の位置を返す．
+   *
+   * @param i フレーム番号
+   * @return 配列上の位置
+   */
+  public final int offset(final int i) {
+    return i * bins;
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を返す．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @return 値
+   */
+  public final double get(final int i, final int j) {
+    return data[i * bins + j];
+  }
+
+  /**
+   * i番目のフレームのj番目の周波数ビンの値を設定する．
+   *
+   * @param i フレーム番号
+   * @param j 周波数ビン番号
+   * @param value 値
+   */
+  public final void set(final int i, final int j, final double value) {
+    data[i * bins + j] = value;
+  }
+
+  /**
+   * i番目のフレームを書き込む．
+   *
+   * @param i フレーム番号
+   * @param dst 出力先（長さ {@link #bins()} 以上）
+   * @return 出力先
+   */
+  public final double[] row(final int i, final double[] dst) {
+    System.arraycopy(data, i * bins, dst, 0, bins);
+    return dst;
+  }
+
+  /**
+   * フレームごとの配列に変換する．
+   *
+   * @return フレームごとに新しく確保された配列
+   */
+  public final double[][] toArray() {
+    final double[][] dst = new double[frames][];
+    for (int i = 0; i < frames; i++)
+      dst[i] = row(i, new double[bins]);
+    return dst;
+  }
+
+}
@@ -0,0 +1,233 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 対数振幅スペクトログラムを時間×周波数の一定の大きさのタイルに分けて，必要になったものだけ計算するクラスです．
+ * 各タイルは {@link #TILE_FRAMES} フレーム × {@link #TILE_BINS} ビンの対数振幅を
+ * 下限から上限までの範囲で256段階に量子化した値（byte）で持つ（量子化の規則は {@link QuantizedSpectrogram} と共通）．
+ * 計算したタイルは最近使われた順に保持し，数が上限を超えると最も長く使われていないものから捨てる．
+ * 表示範囲のタイルだけを要求すれば，長い録音でも計算量と使用メモリは表示範囲の大きさで抑えられる．
+ * 直前に計算したタイルの列（同じフレーム範囲）の全ビンの対数振幅を保持しておき，
+ * 同じ列の別の周波数帯のタイルではFFTをやり直さない．
+ * {@link MappedSpectrogram} に求めておいた対数振幅からタイルを作ることもでき，
+ * その場合はFFTの代わりにファイルの該当する範囲を読み出す．
+ * JavaFXのスレッドなど単一のスレッドから使うこと．
+ */
+public final class SpectrogramTileCache {
+
+  /** 1タイルあたりのフレーム数 */
+  public static final int TILE_FRAMES = 128;
+
+  /** 1タイルあたりの周波数ビン数 */
+  public static final int TILE_BINS = 128;
+
+  /** 量子化の段階数 */
+  public static final int LEVELS = 256;
+
+  /** 保持するタイル数の上限の既定値（1タイル16KiBなので64MiB） */
+  public static final int defaultMaxTiles = 4096;
+
+  /** 信号から計算するときのフレーム列と変換（ファイルから読み出すときは null） */
+  private final SlidingFrames frames;
+  private final RealFFT rfft;
+
+  /** 対数振幅を読み出すファイル（信号から計算するときは null） */
+  private final MappedSpectrogram store;
+
+  private final int frameCount;
+  private final int bins;
+  private final double lowerBound;
+  private final int maxTiles;
+
+  /** 量子化の刻み (dB) とその逆数 */
+  private final double step;
+  private final double scale;
+
+  /** 最近使われた順のタイル */
+  private final LinkedHashMap<Long, byte[]> tiles;
+
+  /** 直前に計算した列とその対数振幅（TILE_FRAMES × bins，行優先） */
+  private int cachedColumn = -1;
+  private final double[] columnLog;
+
+  /** 作業用配列 */
+  private final double[] frame;
+  private final double[] re;
+  private final double[] im;
+
+  private long computed;
+
+  /**
+   * タイルの計算と保持を行うオブジェクトを作る．
+   *
+   * @param x 入力信号（コピーされないので，使用中は変更しないこと）
+   * @param window 窓関数（長さが変換長になる）
+   * @param shiftSize 窓関数のシフト長
+   * @param lowerBound 量子化の下限 (dB)
+   * @param upperBound 量子化の上限 (dB)
+   * @param maxTiles 保持するタイル数の上限
+   */
+  public SpectrogramTileCache(final double[] x, final double[] window, final int shiftSize,
+                              final double lowerBound, final double upperBound, final int maxTiles) {
+    this(new SlidingFrames(x, window, shiftSize), RealFFT.of(window.length), null,
+         lowerBound, upperBound, maxTiles);
+  }
+
+  /**
+   * ファイルに求めておいた対数振幅スペクトログラムからタイルを作るオブジェクトを作る．
+   *
+   * @param store 対数振幅スペクトログラム (dB)（使用中は閉じないこと）
+   * @param lowerBound 量子化の下限 (dB)
+   * @param upperBound 量子化の上限 (dB)
+   * @param maxTiles 保持するタイル数の上限
+   */
+  public SpectrogramTileCache(final MappedSpectrogram store,
+                              final double lowerBound, final double upperBound, final int maxTiles) {
+    this(null, null, store, lowerBound, upperBound, maxTiles);
+  }
+
+  private SpectrogramTileCache(final SlidingFrames frames, final RealFFT rfft, final MappedSpectrogram store,
+                               final double lowerBound, final double upperBound, final int maxTiles) {
+    if (!(upperBound > lowerBound))
+      throw new IllegalArgumentException(
+        "upperBound must be larger than lowerBound: " +
+        "lowerBound = " + lowerBound + ", upperBound = " + upperBound
+      );
+    if (maxTiles <= 0)
+      throw new IllegalArgumentException("maxTiles must be positive: " + maxTiles);
+    this.frames = frames;
+    this.rfft = rfft;
+    this.store = store;
+    this.frameCount = store != null ? store.frames() : frames.count();
+    this.bins = store != null ? store.bins() : rfft.bins();
+    this.lowerBound = lowerBound;
+    this.step = (upperBound - lowerBound) / (LEVELS - 1);
+    this.scale = (LEVELS - 1) / (upperBound - lowerBound);
+    this.maxTiles = maxTiles;
+    this.tiles = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+        return size() > SpectrogramTileCache.this.maxTiles;
+      }
+    };
+    this.columnLog = new double[TILE_FRAMES * bins];
+    this.frame = store != null ? null : new double[frames.frameSize()];
+    this.re = store != null ? null : new double[bins];
+    this.im = store != null ? null : new double[bins];
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int frames() {
+    return frameCount;
+  }
+
+  /**
+   * 1フレームあたりの周波数ビン数を返す．
+   *
+   * @return 周波数ビン数
+   */
+  public final int bins() {
+    return bins;
+  }
+
+  /**
+   * 時間方向のタイル数を返す．
+   *
+   * @return タイル数
+   */
+  public final int columns() {
+    return (frames() + TILE_FRAMES - 1) / TILE_FRAMES;
+  }
+
+  /**
+   * 周波数方向のタイル数を返す．
+   *
+   * @return タイル数
+   */
+  public final int bands() {
+    return (bins() + TILE_BINS - 1) / TILE_BINS;
+  }
+
+  /**
+   * 保持しているタイル数を返す．
+   *
+   * @return タイル数
+   */
+  public final int size() {
+    return tiles.size();
+  }
+
+  /**
+   * これまでに計算したタイル数を返す．
+   *
+   * @return タイル数
+   */
+  public final long computed() {
+    return computed;
+  }
+
+  /**
+   * 量子化された値を対数振幅に戻す．
+   *
+   * @param q 量子化された値（0 以上 {@link #LEVELS} 未満）
+   * @return 対数振幅 (dB)
+   */
+  public final double dequantize(final int q) {
+    return QuantizedSpectrogram.dequantize(q, lowerBound, step);
+  }
+
+  /**
+   * タイルを返す．保持していなければ計算する．
+   * i番目のフレームのj番目のビンは
+   * {@code tile[(i - column * TILE_FRAMES) * TILE_BINS + (j - band * TILE_BINS)] & 0xff} にある．
+   * 範囲外のフレーム・ビンの値は0（下限）である．
+   * 返される配列は保持されているものと共有されるので，書き換えないこと．
+   *
+   * @param column 時間方向のタイル番号
+   * @param band 周波数方向のタイル番号
+   * @return 量子化された対数振幅
+   */
+  public final byte[] tile(final int column, final int band) {
+    final Long key = ((long)column << 32) | band;
+    byte[] tile = tiles.get(key);
+    if (tile == null) {
+      tile = compute(column, band);
+      tiles.put(key, tile);
+    }
+    return tile;
+  }
+
+  private final byte[] compute(final int column, final int band) {
+    final int bins = bins();
+    final int first = column * TILE_FRAMES;
+    final int count = Math.min(TILE_FRAMES, frames() - first);
+    if (column != cachedColumn && store != null) {
+      store.slice(first, first + count, 0, bins, columnLog);
+      cachedColumn = column;
+    } else if (column != cachedColumn) {
+      for (int t = 0; t < count; t++) {
+        frames.frame(first + t, frame);
+        rfft.forward(frame, re, im);
+        RealFFT.logAbs(re, im, re);
+        System.arraycopy(re, 0, columnLog, t * bins, bins);
+      }
+      cachedColumn = column;
+    }
+    final byte[] tile = new byte[TILE_FRAMES * TILE_BINS];
+    final int from = band * TILE_BINS;
+    final int width = Math.min(TILE_BINS, bins - from);
+    for (int t = 0; t < count; t++) {
+      final int src = t * bins + from;
+      final int dst = t * TILE_BINS;
+      for (int k = 0; k < width; k++)
+        tile[dst + k] = (byte)QuantizedSpectrogram.quantize(columnLog[src + k], lowerBound, scale, LEVELS - 1);
+    }
+    computed++;
+    return tile;
+  }
+
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.EOFException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * 音響信号をブロック単位で読み込みながらフレームを切り出すクラスです．
+ * フレームの位置と数は {@link SlidingFrames} と同じであるが，
+ * 波形全体を配列に展開せず，フレーム長とブロック長の分のサンプルだけを保持する．
+ * そのため使用するメモリは入力の長さによらない．
+ * 切り出されたフレームは窓掛けされずにそのまま渡される．
+ */
+public final class StreamingFrames {
+
+  /** ブロック単位でモノラル波形を読み出す入力 */
+  @FunctionalInterface
+  private interface Source {
+    /**
+     * @return 読み出したサンプル数．終端なら負の値
+     */
+    int read(double[] dst, int off, int len) throws IOException;
+  }
+
+  private final Source source;
+
+  /** 入力のサンプル数 */
+  private final long length;
+
+  private final int frameSize;
+  private final int shiftSize;
+
+  /**
+   * AudioInputStreamから読み込むフレーム列を作る．
+   * ストリームは全チャネルの平均としてデコードされる．
+   *
+   * @param stream ストリーム（フレーム数が既知であること）
+   * @param frameSize フレーム長
+   * @param shiftSize シフト長
+   */
+  public StreamingFrames(final AudioInputStream stream, final int frameSize, final int shiftSize) {
+    this(streamSource(stream), stream.getFrameLength(), frameSize, shiftSize);
+  }
+
+  /**
+   * メモリマップされたWAVファイルから読み込むフレーム列を作る．
+   *
+   * @param reader WAVファイル
+   * @param frameSize フレーム長
+   * @param shiftSize シフト長
+   */
+  public StreamingFrames(final MappedWavReader reader, final int frameSize, final int shiftSize) {
+    this(readerSource(reader), reader.getFrameLength(), frameSize, shiftSize);
+  }
+
+  private StreamingFrames(final Source source, final long length,
+                          final int frameSize, final int shiftSize) {
+    if (frameSize <= 0 || shiftSize <= 0)
+      throw new IllegalArgumentException(
+        "frameSize and shiftSize must be positive: " +
+        "frameSize = " + frameSize + ", shiftSize = " + shiftSize
+      );
+    if (length < 0)
+      throw new IllegalArgumentException("frame length of the input must be known");
+    this.source = source;
+    this.length = length;
+    this.frameSize = frameSize;
+    this.shiftSize = shiftSize;
+  }
+
+  private static final Source streamSource(final AudioInputStream stream) {
+    final WaveformDecoder decoder = new WaveformDecoder(stream.getFormat());
+    final int frameBytes = decoder.frameBytes();
+    final byte[] block = new byte[Math.max(1, WaveformDecoder.BLOCK_SIZE / frameBytes) * frameBytes];
+    return (dst, off, len) -> {
+      final int bytes = Math.min(len, block.length / frameBytes) * frameBytes;
+      int read = 0;
+      while (read < bytes) {
+        final int n = stream.read(block, read, bytes - read);
+        if (n < 0)
+          break;
+        read += n;
+      }
+      if (read % frameBytes != 0)
+        throw new EOFException("stream ended in the middle of a frame");
+      if (read == 0)
+        return -1;
+      decoder.decodeMonaural(block, 0, read / frameBytes, dst, off);
+      return read / frameBytes;
+    };
+  }
+
+  private static final Source readerSource(final MappedWavReader reader) {
+    final long[] position = { 0 };
+    return (dst, off, len) -> {
+      final int n = reader.readFrames(position[0], dst, off, len);
+      if (n == 0)
+        return -1;
+      position[0] += n;
+      return n;
+    };
+  }
+
+  /**
+   * フレーム数を返す．
+   *
+   * @return フレーム数
+   */
+  public final int count() {
+    return (int)(length / shiftSize);
+  }
+
+  /**
+   * フレーム長を返す．
+   *
+   * @return フレーム長
+   */
+  public final int frameSize() {
+    return frameSize;
+  }
+
+  /**
+   * 入力のサンプル数を返す．
+   *
+   * @return サンプル数
+   */
+  public final long length() {
+    return length;
+  }
+
+  /**
+   * 入力を読み進めながら全てのフレームを順に処理する．
+   * 渡される配列は使い回されるので，保持してはならない．
+   * 入力の終わりを越える部分は0で埋められる．
+   * このメソッドは入力を読み切るため，1回しか呼べない．
+   *
+   * @param action 各フレームに対する処理
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public final void forEach(final SlidingFrames.FrameConsumer action) throws IOException {
+    final int count = count();
+    final int block = Math.max(WaveformDecoder.BLOCK_SIZE, shiftSize);
+    /* フレーム1つ分と読み込みブロック1つ分を保持するバッファ */
+    final double[] buf = new double[frameSize + block];
+    final double[] frame = new double[frameSize];
+    long bufStart = 0;   // buf[0] の入力上の位置
+    int bufLength = 0;   // buf の有効なサンプル数
+    boolean eof = false;
+    for (int index = 0; index < count; ) {
+      final long rel = (long)index * shiftSize - bufStart;
+      if (rel + frameSize <= bufLength || eof) {
+        /* 必要なサンプルが揃った（または入力が尽きた）のでフレームを渡す */
+        final int n = (int)Math.max(0, Math.min(frameSize, bufLength - rel));
+        System.arraycopy(buf, (int)Math.min(rel, bufLength), frame, 0, n);
+        Arrays.fill(frame, n, frameSize, 0.0);
+        action.accept(index++, frame);
+        continue;
+      }
+      /* 次のフレームより前のサンプルを捨てて詰め，続きを読み込む */
+      final int drop = (int)Math.min(rel, bufLength);
+      System.arraycopy(buf, drop, buf, 0, bufLength - drop);
+      bufLength -= drop;
+      bufStart += drop;
+      final int n = source.read(buf, bufLength, buf.length - bufLength);
+      if (n < 0)
+        eof = true;
+      else
+        bufLength += n;
+    }
+  }
+
+  /**
+   * 入力を読み進めながら全てのフレームを窓掛けしてフーリエ変換し，片側スペクトルを処理する．
+   * 変換長はフレーム長と等しい．
+   * フレームとスペクトル用の配列はそれぞれ1つだけ確保され，使い回される．
+   *
+   * @param window 窓関数（長さはフレーム長と等しいこと）
+   * @param action 各フレームのスペクトルに対する処理
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public final void forEachSpectrum(final double[] window, final SlidingFrames.SpectrumConsumer action)
+    throws IOException {
+    if (window.length != frameSize)
+      throw new IllegalArgumentException(
+        "window.length must be equal to frameSize: " +
+        "window.length = " + window.length + ", frameSize = " + frameSize
+      );
+    final RealFFT rfft = RealFFT.of(frameSize);
+    final double[] wframe = new double[frameSize];
+    final double[] re = new double[rfft.bins()];
+    final double[] im = new double[rfft.bins()];
+    forEach((i, frame) -> {
+      for (int k = 0; k < frameSize; k++)
+        wframe[k] = frame[k] * window[k];
+      rfft.forward(wframe, re, im);
+      action.accept(i, re, im);
+    });
+  }
+
+}
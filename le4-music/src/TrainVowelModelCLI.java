@@ -0,0 +1,85 @@
+import java.lang.invoke.MethodHandles;
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * 母音ごとの学習用WAVファイルから母音認識のモデルを求め，バイナリ形式のファイルに保存するコマンドです．
+ * 保存したモデルは GUI や PlotaiueoCLI の {@code --model} オプションで読み込める．
+ * 既存のモデルが同じWAVファイルと分析条件から作られていれば，学習し直さない．
+ */
+public final class TrainVowelModelCLI {
+
+  private static final Options options = new Options();
+  private static final String helpMessage =
+    MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] <A.WAV> <I.WAV> <U.WAV> <E.WAV> <O.WAV>";
+
+  /** モデルのファイル名の既定値 */
+  public static final String defaultModelFile = "vowel.model";
+
+  static {
+    /* コマンドラインオプション定義 */
+    options.addOption("h", "help", false, "Display this help and exit");
+    options.addOption("o", "outfile", true,
+                      "Output model file (Default: " + defaultModelFile + ")");
+    options.addOption("f", "frame", true,
+                      "Frame duration [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
+    options.addOption("s", "shift", true,
+                      "Shift duration [seconds] (Default: " + Le4MusicUtils.frameDuration / 8 + ")");
+    options.addOption("p", "pad", false,
+                      "Zero-pad each frame to a power of two before the FFT (as GUI does)");
+    options.addOption("F", "force", false, "Retrain even if the model file is up to date");
+  }
+
+  private TrainVowelModelCLI() {
+    throw new AssertionError("this class should not be instantiated");
+  }
+
+  public static final void main(final String[] args)
+    throws IOException, UnsupportedAudioFileException, ParseException {
+    /* コマンドライン引数処理 */
+    final CommandLine cmd = new DefaultParser().parse(options, args);
+    if (cmd.hasOption("help")) {
+      new HelpFormatter().printHelp(helpMessage, options);
+      return;
+    }
+    final String[] pargs = cmd.getArgs();
+    if (pargs.length < 5) {
+      System.out.println("five WAVFILEs (a, i, u, e, o) are not given.");
+      new HelpFormatter().printHelp(helpMessage, options);
+      return;
+    }
+    final File[] wavFiles = new File[5];
+    for (int v = 0; v < 5; v++)
+      wavFiles[v] = new File(pargs[v]);
+    final File modelFile = new File(
+      Optional.ofNullable(cmd.getOptionValue("outfile")).orElse(defaultModelFile));
+
+    /* 分析条件 */
+    final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+      .orElse(Le4MusicUtils.frameDuration);
+    final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+      .orElse(Le4MusicUtils.frameDuration / 8);
+    final VowelModel.Analysis analysis =
+      new VowelModel.Analysis(frameDuration, shiftDuration, cmd.hasOption("pad"), 13);
+
+    final long start = System.nanoTime();
+    final VowelModel model;
+    if (cmd.hasOption("force")) {
+      model = VowelModel.train(wavFiles, analysis);
+      model.save(modelFile);
+    } else {
+      model = VowelModel.loadOrTrain(modelFile, wavFiles, analysis);
+    }
+    System.out.printf("%s: %d classes (%s), %.1f ms%n",
+                      modelFile, model.classes(), model.analysis(), (System.nanoTime() - start) * 1e-6);
+  }
+
+}
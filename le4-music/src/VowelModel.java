@@ -0,0 +1,377 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.commons.math3.util.MathArrays;
+
+/**
+ * 母音ごとのケプストラム係数の平均と分散からなる母音認識のモデルです．
+ * 学習用のWAVファイル（1ファイル1母音）から求め，バイナリ形式のファイルに保存・読み込みできる．
+ * ファイルには学習用のWAVファイルの内容と分析条件から求めたハッシュ値（SHA-256）が記録され，
+ * {@link #loadOrTrain} はこれが一致する場合だけ保存されたモデルを使い，一致しなければ学習し直す．
+ */
+public final class VowelModel {
+
+  /** ファイルの先頭に置く識別子 "VWLM" */
+  private static final int MAGIC = 0x56574c4d;
+
+  /** ファイル形式の版 */
+  private static final int VERSION = 1;
+
+  /**
+   * ケプストラム係数を求める分析の条件です．
+   */
+  public static final class Analysis {
+
+    /** フレーム長 (seconds) */
+    public final double frameDuration;
+
+    /** シフト長 (seconds) */
+    public final double shiftDuration;
+
+    /** true ならフレームを2のべき乗の長さに0埋めしてフーリエ変換する */
+    public final boolean padded;
+
+    /** ケプストラム係数の次数 */
+    public final int order;
+
+    public Analysis(final double frameDuration, final double shiftDuration,
+                    final boolean padded, final int order) {
+      if (!(frameDuration > 0.0) || !(shiftDuration > 0.0) || order <= 0)
+        throw new IllegalArgumentException(
+          "frameDuration, shiftDuration and order must be positive: " +
+          "frameDuration = " + frameDuration + ", shiftDuration = " + shiftDuration +
+          ", order = " + order
+        );
+      this.frameDuration = frameDuration;
+      this.shiftDuration = shiftDuration;
+      this.padded = padded;
+      this.order = order;
+    }
+
+    /**
+     * 正規化された窓関数を返す．
+     *
+     * @param sampleRate サンプリング周波数
+     * @return 窓関数（長さはフーリエ変換の長さ）
+     */
+    public final double[] window(final double sampleRate) {
+      final int frameSize = (int)Math.round(frameDuration * sampleRate);
+      final int fftSize = padded ? 1 << Le4MusicUtils.nextPow2(frameSize) : frameSize;
+      return MathArrays.normalizeArray(
+        Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0);
+    }
+
+    /**
+     * シフトのサンプル数を返す．
+     *
+     * @param sampleRate サンプリング周波数
+     * @return シフト長
+     */
+    public final int shiftSize(final double sampleRate) {
+      return (int)Math.round(shiftDuration * sampleRate);
+    }
+
+    /**
+     * ストリームをブロック単位で読み込みながら各フレームのケプストラム係数を求め，
+     * その平均と分散を集計する．
+     * 波形やフレームごとの係数を保持しないため，使用するメモリは入力の長さによらない．
+     *
+     * @param stream ストリーム（フレーム数が既知であること）
+     * @return ケプストラム係数の平均と分散
+     * @throws IOException 入出力例外が発生した場合
+     */
+    public final MeanVariance statistics(final AudioInputStream stream) throws IOException {
+      final double sampleRate = stream.getFormat().getSampleRate();
+      final double[] window = window(sampleRate);
+      final Cepstrum cepstrum = new Cepstrum(window.length / 2 + 1, order);
+      final double[] spectrum = new double[window.length / 2 + 1];
+      final double[] ceps = new double[order];
+      final MeanVariance stats = new MeanVariance(order);
+      new StreamingFrames(stream, window.length, shiftSize(sampleRate)).forEachSpectrum(window, (i, re, im) -> {
+        RealFFT.abs(re, im, spectrum);
+        stats.add(cepstrum.coefficients(spectrum, 0, ceps));
+      });
+      return stats;
+    }
+
+    @Override
+    public final boolean equals(final Object o) {
+      if (!(o instanceof Analysis))
+        return false;
+      final Analysis a = (Analysis)o;
+      return Double.compare(frameDuration, a.frameDuration) == 0 &&
+             Double.compare(shiftDuration, a.shiftDuration) == 0 &&
+             padded == a.padded && order == a.order;
+    }
+
+    @Override
+    public final int hashCode() {
+      return Arrays.hashCode(new double[] { frameDuration, shiftDuration, padded ? 1 : 0, order });
+    }
+
+    @Override
+    public final String toString() {
+      return "frame = " + frameDuration + " s, shift = " + shiftDuration + " s, " +
+             "padded = " + padded + ", order = " + order;
+    }
+
+  }
+
+  private final Analysis analysis;
+
+  /** 学習用のWAVファイルと分析条件のハッシュ値 */
+  private final byte[] key;
+
+  /** 母音ごとの平均（母音数 × 次数） */
+  private final double[][] mean;
+
+  /** 母音ごとの分散（母音数 × 次数） */
+  private final double[][] variance;
+
+  private VowelModel(final Analysis analysis, final byte[] key,
+                     final double[][] mean, final double[][] variance) {
+    this.analysis = analysis;
+    this.key = key;
+    this.mean = mean;
+    this.variance = variance;
+  }
+
+  /**
+   * 分析条件を返す．
+   *
+   * @return 分析条件
+   */
+  public final Analysis analysis() {
+    return analysis;
+  }
+
+  /**
+   * 母音の数を返す．
+   *
+   * @return 母音の数
+   */
+  public final int classes() {
+    return mean.length;
+  }
+
+  /**
+   * 母音ごとの平均を返す．
+   *
+   * @return 平均（母音数 × 次数）の複製
+   */
+  public final double[][] mean() {
+    return copy(mean);
+  }
+
+  /**
+   * 母音ごとの分散を返す．
+   *
+   * @return 分散（母音数 × 次数）の複製
+   */
+  public final double[][] variance() {
+    return copy(variance);
+  }
+
+  /**
+   * このモデルの識別器を作る．
+   *
+   * @return 母音ごとの正規分布による識別器
+   */
+  public final GaussianClassifier classifier() {
+    return new GaussianClassifier(mean, variance);
+  }
+
+  private static final double[][] copy(final double[][] a) {
+    final double[][] b = new double[a.length][];
+    for (int i = 0; i < a.length; i++)
+      b[i] = a[i].clone();
+    return b;
+  }
+
+  /**
+   * WAVファイルから母音ごとの平均と分散を求める．
+   *
+   * @param wavFiles 母音ごとの学習用WAVファイル
+   * @param analysis 分析条件
+   * @return モデル
+   * @throws IOException 入出力例外が発生した場合
+   * @throws UnsupportedAudioFileException 対応していない形式のとき
+   */
+  public static final VowelModel train(final File[] wavFiles, final Analysis analysis)
+    throws IOException, UnsupportedAudioFileException {
+    final double[][] mean = new double[wavFiles.length][analysis.order];
+    final double[][] variance = new double[wavFiles.length][analysis.order];
+    for (int v = 0; v < wavFiles.length; v++) {
+      final MeanVariance stats;
+      try (AudioInputStream stream = AudioSystem.getAudioInputStream(wavFiles[v])) {
+        stats = analysis.statistics(stream);
+      }
+      stats.mean(mean[v]);
+      stats.variance(variance[v]);
+    }
+    return new VowelModel(analysis, key(wavFiles, analysis), mean, variance);
+  }
+
+  /**
+   * 学習用のWAVファイルの内容と分析条件からハッシュ値を求める．
+   *
+   * @param wavFiles 母音ごとの学習用WAVファイル
+   * @param analysis 分析条件
+   * @return SHA-256 のハッシュ値
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public static final byte[] key(final File[] wavFiles, final Analysis analysis)
+    throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+    final byte[] buf = new byte[WaveformDecoder.BLOCK_SIZE];
+    putLong(digest, buf, Double.doubleToLongBits(analysis.frameDuration));
+    putLong(digest, buf, Double.doubleToLongBits(analysis.shiftDuration));
+    putLong(digest, buf, analysis.padded ? 1 : 0);
+    putLong(digest, buf, analysis.order);
+    putLong(digest, buf, wavFiles.length);
+    for (final File f : wavFiles) {
+      /* ファイルの境目が曖昧にならないよう長さも含める */
+      putLong(digest, buf, f.length());
+      try (InputStream in = new FileInputStream(f)) {
+        for (int n; (n = in.read(buf)) >= 0; )
+          digest.update(buf, 0, n);
+      }
+    }
+    return digest.digest();
+  }
+
+  private static final void putLong(final MessageDigest digest, final byte[] buf, final long v) {
+    for (int i = 0; i < 8; i++)
+      buf[i] = (byte)(v >>> (56 - 8 * i));
+    digest.update(buf, 0, 8);
+  }
+
+  /**
+   * モデルをファイルに保存する．
+   * 一時ファイルに書き込んでから置き換えるため，書き込み途中のファイルが読まれることはない．
+   *
+   * @param file 保存先
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public final void save(final File file) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeDouble(analysis.frameDuration);
+        out.writeDouble(analysis.shiftDuration);
+        out.writeBoolean(analysis.padded);
+        out.writeInt(analysis.order);
+        out.writeInt(mean.length);
+        for (final double[] m : mean)
+          for (final double x : m)
+            out.writeDouble(x);
+        for (final double[] s : variance)
+          for (final double x : s)
+            out.writeDouble(x);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * ファイルに保存されたモデルを読み込む．
+   *
+   * @param file モデルのファイル
+   * @return モデル
+   * @throws IOException 入出力例外が発生した場合，またはモデルのファイルとして解釈できないとき
+   */
+  public static final VowelModel load(final File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+           new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException("not a vowel model file: " + file);
+      final int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("unsupported vowel model version: " + version);
+      final int keyLength = in.readInt();
+      if (keyLength < 0 || keyLength > 64)
+        throw new IOException("broken vowel model file: " + file);
+      final byte[] key = new byte[keyLength];
+      in.readFully(key);
+      final double frameDuration = in.readDouble();
+      final double shiftDuration = in.readDouble();
+      final boolean padded = in.readBoolean();
+      final int order = in.readInt();
+      final int classes = in.readInt();
+      if (classes <= 0 || classes > 1024 || order <= 0 || order > 1 << 16)
+        throw new IOException("broken vowel model file: " + file);
+      final Analysis analysis;
+      try {
+        analysis = new Analysis(frameDuration, shiftDuration, padded, order);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("broken vowel model file: " + file, e);
+      }
+      final double[][] mean = new double[classes][order];
+      final double[][] variance = new double[classes][order];
+      for (final double[] m : mean)
+        for (int d = 0; d < order; d++)
+          m[d] = in.readDouble();
+      for (final double[] s : variance)
+        for (int d = 0; d < order; d++)
+          s[d] = in.readDouble();
+      return new VowelModel(analysis, key, mean, variance);
+    }
+  }
+
+  /**
+   * 保存されたモデルが学習用のWAVファイルと分析条件に一致すればそれを読み込み，
+   * 一致しない（またはファイルが無い・壊れている）場合は学習し直して保存する．
+   *
+   * @param file モデルのファイル
+   * @param wavFiles 母音ごとの学習用WAVファイル
+   * @param analysis 分析条件
+   * @return モデル
+   * @throws IOException 入出力例外が発生した場合
+   * @throws UnsupportedAudioFileException 対応していない形式のとき
+   */
+  public static final VowelModel loadOrTrain(final File file, final File[] wavFiles,
+                                             final Analysis analysis)
+    throws IOException, UnsupportedAudioFileException {
+    if (file.isFile()) {
+      try {
+        final VowelModel model = load(file);
+        if (Arrays.equals(model.key, key(wavFiles, analysis)))
+          return model;
+      } catch (IOException e) {
+        /* 読めないファイルは学習し直して上書きする */
+      }
+    }
+    final VowelModel model = train(wavFiles, analysis);
+    model.save(file);
+    return model;
+  }
+
+}
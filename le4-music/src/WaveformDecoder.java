@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.io.EOFException;
+import java.io.InputStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * PCMのバイト列を波形にデコードするクラスです．
+ * 対応する形式は8bit符号なし整数，16bitおよび24bit符号あり整数（リトルエンディアン・ビッグエンディアン），
+ * 32bit浮動小数点数である．
+ * 変換結果は {@code jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils#readWaveformMonaural} と一致するよう，
+ * 符号あり整数の形式は正の最大値（32767，8388607）で割る．
+ * ただし8bit符号なし整数は，jarのデコーダが128（無音）を -2.0 にするなど単調でない値を返すため，
+ * jarとは意図的に異なり {@code (x - 128) / 128.0} とする．
+ * フレームのバイト数が量子化ビット数から求まるものより大きい形式（32bitの器に入れた24bitなど）では，
+ * 各サンプルを器の上位側（リトルエンディアンでは後ろ，ビッグエンディアンでは前）に詰めたものとして読む．
+ * サンプルごとに読み込むのではなく，フレーム境界に揃えたブロック単位
+ * （{@link #BLOCK_SIZE} バイト程度）で読み込み，形式ごとのループでまとめて変換する．
+ */
+public final class WaveformDecoder {
+
+  /** 一度に読み込むバイト数の目安 */
+  public static final int BLOCK_SIZE = 1 << 16;
+
+  /** サンプルの形式 */
+  private enum Kind { U8, S16LE, S16BE, S24LE, S24BE, F32LE, F32BE }
+
+  private final Kind kind;
+
+  /** チャネル数 */
+  private final int channels;
+
+  /** 1サンプルあたりのバイト数 */
+  private final int sampleBytes;
+
+  /** 1サンプルの器のバイト数と，器の中でのサンプルの位置 */
+  private final int containerBytes;
+  private final int padding;
+
+  /**
+   * 与えられた形式のデコーダを作る．
+   *
+   * @param format オーディオ形式
+   * @throws IllegalArgumentException 対応していない形式のとき
+   */
+  public WaveformDecoder(final AudioFormat format) {
+    this(format.getEncoding(), format.getSampleSizeInBits(),
+         format.isBigEndian(), format.getChannels(), format.getFrameSize());
+  }
+
+  /**
+   * 与えられた形式のデコーダを作る．
+   *
+   * @param encoding エンコーディング
+   * @param quantizationBits 量子化ビット数
+   * @param bigEndian ビッグエンディアンなら true
+   * @param channels チャネル数
+   * @throws IllegalArgumentException 対応していない形式のとき
+   */
+  public WaveformDecoder(final AudioFormat.Encoding encoding,
+                         final int quantizationBits,
+                         final boolean bigEndian,
+                         final int channels) {
+    this(encoding, quantizationBits, bigEndian, channels, AudioSystem.NOT_SPECIFIED);
+  }
+
+  private WaveformDecoder(final AudioFormat.Encoding encoding,
+                          final int quantizationBits,
+                          final boolean bigEndian,
+                          final int channels,
+                          final int frameBytes) {
+    if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED) && quantizationBits == 8)
+      kind = Kind.U8;
+    else if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && quantizationBits == 16)
+      kind = bigEndian ? Kind.S16BE : Kind.S16LE;
+    else if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && quantizationBits == 24)
+      kind = bigEndian ? Kind.S24BE : Kind.S24LE;
+    else if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && quantizationBits == 32)
+      kind = bigEndian ? Kind.F32BE : Kind.F32LE;
+    else
+      throw new IllegalArgumentException(
+        "Unsupported encoding and quantization bits: " +
+        "encoding = " + encoding + ", bits = " + quantizationBits
+      );
+    if (channels <= 0)
+      throw new IllegalArgumentException("channels must be positive: " + channels);
+    this.channels = channels;
+    this.sampleBytes = quantizationBits >> 3;
+    if (frameBytes == AudioSystem.NOT_SPECIFIED || frameBytes == sampleBytes * channels)
+      this.containerBytes = sampleBytes;
+    else if (frameBytes > sampleBytes * channels && frameBytes % channels == 0)
+      this.containerBytes = frameBytes / channels;
+    else
+      throw new IllegalArgumentException(
+        "Unsupported frame size: " +
+        "frameSize = " + frameBytes + ", bits = " + quantizationBits + ", channels = " + channels
+      );
+    this.padding = bigEndian ? 0 : containerBytes - sampleBytes;
+  }
+
+  /**
+   * チャネル数を返す．
+   *
+   * @return チャネル数
+   */
+  public final int channels() {
+    return channels;
+  }
+
+  /**
+   * 1フレーム（全チャネルの1サンプル）あたりのバイト数を返す．
+   *
+   * @return フレームあたりのバイト数
+   */
+  public final int frameBytes() {
+    return containerBytes * channels;
+  }
+
+  /**
+   * バイト列をデコードし，チャネルごとの配列に書き込む．
+   *
+   * @param src バイト列
+   * @param srcOff バイト列の読み出し開始位置
+   * @param frames デコードするフレーム数
+   * @param dst チャネルごとの出力先
+   * @param dstOff 出力先の書き込み開始位置
+   */
+  public final void decode(final byte[] src, final int srcOff, final int frames,
+                           final double[][] dst, final int dstOff) {
+    final int frameBytes = frameBytes();
+    for (int j = 0; j < channels; j++)
+      decodeChannel(src, srcOff + j * containerBytes + padding, frameBytes, frames, dst[j], dstOff, false);
+  }
+
+  /**
+   * バイト列をデコードし，全チャネルの平均を書き込む．
+   *
+   * @param src バイト列
+   * @param srcOff バイト列の読み出し開始位置
+   * @param frames デコードするフレーム数
+   * @param dst 出力先
+   * @param dstOff 出力先の書き込み開始位置
+   */
+  public final void decodeMonaural(final byte[] src, final int srcOff, final int frames,
+                                   final double[] dst, final int dstOff) {
+    final int frameBytes = frameBytes();
+    for (int j = 0; j < channels; j++)
+      decodeChannel(src, srcOff + j * containerBytes + padding, frameBytes, frames, dst, dstOff, j > 0);
+    if (channels > 1)
+      for (int i = dstOff; i < dstOff + frames; i++)
+        dst[i] /= channels;
+  }
+
+  /** 1チャネル分をデコードする．add が true なら出力先に加算する */
+  private final void decodeChannel(final byte[] src, int p, final int stride, final int frames,
+                                   final double[] dst, final int dstOff, final boolean add) {
+    final int end = dstOff + frames;
+    switch (kind) {
+    case U8:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = ((src[p] & 0xff) - 128) / 128.0;
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case S16LE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = (short)((src[p + 1] << 8) | (src[p] & 0xff)) / 32767.0;
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case S16BE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = (short)((src[p] << 8) | (src[p + 1] & 0xff)) / 32767.0;
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case S24LE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = ((src[p + 2] << 16) | ((src[p + 1] & 0xff) << 8) | (src[p] & 0xff)) / 8388607.0;
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case S24BE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = ((src[p] << 16) | ((src[p + 1] & 0xff) << 8) | (src[p + 2] & 0xff)) / 8388607.0;
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case F32LE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = Float.intBitsToFloat(
+          (src[p + 3] << 24) | ((src[p + 2] & 0xff) << 16) | ((src[p + 1] & 0xff) << 8) | (src[p] & 0xff));
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    case F32BE:
+      for (int i = dstOff; i < end; i++, p += stride) {
+        final double v = Float.intBitsToFloat(
+          (src[p] << 24) | ((src[p + 1] & 0xff) << 16) | ((src[p + 2] & 0xff) << 8) | (src[p + 3] & 0xff));
+        dst[i] = add ? dst[i] + v : v;
+      }
+      break;
+    default:
+      throw new AssertionError(kind);
+    }
+  }
+
+  /**
+   * AudioInputStreamからデータをブロック単位で読み込んでデコードし，
+   * チャネルごとの波形が格納された配列を返す．
+   *
+   * @param stream ストリーム
+   * @return チャネルごとの波形が格納された配列
+   * @throws IOException 入出力例外が発生した場合
+   * @throws IllegalArgumentException 対応していない形式のとき
+   */
+  public static final double[][] readWaveform(final AudioInputStream stream)
+    throws IOException {
+    final WaveformDecoder decoder = new WaveformDecoder(stream.getFormat());
+    final int samples = (int)stream.getFrameLength();
+    final double[][] waveform = new double[decoder.channels()][samples];
+    final int frameBytes = decoder.frameBytes();
+    final byte[] block = new byte[blockFrames(frameBytes) * frameBytes];
+    for (int i = 0; i < samples; ) {
+      final int n = Math.min(block.length / frameBytes, samples - i);
+      readFully(stream, block, n * frameBytes);
+      decoder.decode(block, 0, n, waveform, i);
+      i += n;
+    }
+    return waveform;
+  }
+
+  /**
+   * AudioInputStreamからデータをブロック単位で読み込んでデコードし，
+   * 全チャネルの平均波形が格納された配列を返す．
+   *
+   * @param stream ストリーム
+   * @return 全チャネルの平均波形が格納された配列
+   * @throws IOException 入出力例外が発生した場合
+   * @throws IllegalArgumentException 対応していない形式のとき
+   */
+  public static final double[] readWaveformMonaural(final AudioInputStream stream)
+    throws IOException {
+    final WaveformDecoder decoder = new WaveformDecoder(stream.getFormat());
+    final int samples = (int)stream.getFrameLength();
+    final double[] waveform = new double[samples];
+    final int frameBytes = decoder.frameBytes();
+    final byte[] block = new byte[blockFrames(frameBytes) * frameBytes];
+    for (int i = 0; i < samples; ) {
+      final int n = Math.min(block.length / frameBytes, samples - i);
+      readFully(stream, block, n * frameBytes);
+      decoder.decodeMonaural(block, 0, n, waveform, i);
+      i += n;
+    }
+    return waveform;
+  }
+
+  /** フレーム境界に揃えたブロックのフレーム数 */
+  private static final int blockFrames(final int frameBytes) {
+    return Math.max(1, BLOCK_SIZE / frameBytes);
+  }
+
+  /** 指定したバイト数を読み切るまで読み込む */
+  private static final void readFully(final InputStream stream, final byte[] buf, final int len)
+    throws IOException {
+    for (int off = 0; off < len; ) {
+      final int n = stream.read(buf, off, len - off);
+      if (n < 0)
+        throw new EOFException("unexpected end of stream: " + off + " of " + len + " bytes read");
+      off += n;
+    }
+  }
+
+}
@@ -0,0 +1,400 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import static jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.verbose;
+
+/**
+ * 波形の多段階の要約（最小値・最大値・二乗平均）です．
+ * 第0段は {@link #BLOCK} サンプルごと，第 k 段は第 k-1 段の {@link #FACTOR} 個分ごとに要約する．
+ * 表示の拡大率に応じた段を選べば，画面の幅に比例する数の要約を読むだけで波形の概形を描画できる．
+ * 要約はWAVファイルの横に保存しておくことができ，次回はWAVファイルを復号せずに読み込める．
+ */
+public final class WaveformPyramid {
+
+  private static final int MAGIC = 0x5746504d;
+
+  private static final int VERSION = 1;
+
+  /** 第0段の1要約あたりのサンプル数 */
+  public static final int BLOCK = 16;
+
+  /** 1段ごとの要約の粗さの比 */
+  public static final int FACTOR = 16;
+
+  /** 保存時にWAVファイル名に付け加える拡張子 */
+  public static final String SIDECAR_SUFFIX = ".peaks";
+
+  private final double sampleRate;
+  private final long length;
+
+  /** 段ごとの最小値・最大値・二乗平均 */
+  private final float[][] min;
+  private final float[][] max;
+  private final float[][] meanSquare;
+
+  private WaveformPyramid(final double sampleRate, final long length,
+                          final float[][] min, final float[][] max, final float[][] meanSquare) {
+    this.sampleRate = sampleRate;
+    this.length = length;
+    this.min = min;
+    this.max = max;
+    this.meanSquare = meanSquare;
+  }
+
+  /**
+   * 波形から要約を作る．
+   *
+   * @param samples 波形
+   * @param length サンプル数（{@code samples} の長さ以下）
+   * @param sampleRate サンプリング周波数 [Hz]
+   * @return 要約
+   */
+  public static final WaveformPyramid of(final double[] samples, final long length, final double sampleRate) {
+    if (length < 0 || length > samples.length)
+      throw new IllegalArgumentException("invalid length: " + length);
+    final Builder builder = new Builder(length);
+    builder.add(samples, 0, (int)length);
+    return builder.build(sampleRate);
+  }
+
+  /**
+   * メモリマップしたWAVファイルから要約を作る．
+   * 波形はブロックごとに読み出して要約するため，波形全体をヒープに読み込まない．
+   *
+   * @param reader WAVファイル
+   * @return 要約
+   */
+  public static final WaveformPyramid of(final MappedWavReader reader) {
+    final long length = reader.getFrameLength();
+    final Builder builder = new Builder(length);
+    final double[] buffer = new double[BLOCK * 4096];
+    for (long offset = 0; offset < length; ) {
+      final int n = reader.readFrames(offset, buffer);
+      builder.add(buffer, 0, n);
+      offset += n;
+    }
+    return builder.build(reader.getSampleRate());
+  }
+
+  /** 第0段をサンプルの並びから順に求め，以降の段をまとめて求める */
+  private static final class Builder {
+
+    private final long length;
+
+    /** 段ごとの最小値・最大値・二乗平均 */
+    private final float[][] min;
+    private final float[][] max;
+    private final float[][] meanSquare;
+
+    /** 要約中の第0段の要約の番号，サンプル数，最小値・最大値・二乗和 */
+    private int block = 0;
+    private int count = 0;
+    private double blockMin = 0.0;
+    private double blockMax = 0.0;
+    private double blockSum = 0.0;
+
+    Builder(final long length) {
+      final long n0 = blocks(length, BLOCK);
+      if (n0 > Integer.MAX_VALUE)
+        throw new IllegalArgumentException("too many samples: " + length);
+      this.length = length;
+      int levels = 1;
+      for (long n = n0; n > 1; n = blocks(n, FACTOR))
+        levels++;
+      min = new float[levels][];
+      max = new float[levels][];
+      meanSquare = new float[levels][];
+      min[0] = new float[(int)n0];
+      max[0] = new float[(int)n0];
+      meanSquare[0] = new float[(int)n0];
+    }
+
+    /** 波形の続きを第0段に要約する */
+    final void add(final double[] samples, final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        final double v = samples[i];
+        if (count == 0) {
+          blockMin = v;
+          blockMax = v;
+        } else {
+          if (v < blockMin)
+            blockMin = v;
+          if (v > blockMax)
+            blockMax = v;
+        }
+        blockSum += v * v;
+        if (++count == BLOCK)
+          flush();
+      }
+    }
+
+    private final void flush() {
+      min[0][block] = (float)blockMin;
+      max[0][block] = (float)blockMax;
+      meanSquare[0][block] = count > 0 ? (float)(blockSum / count) : 0.0f;
+      block++;
+      count = 0;
+      blockSum = 0.0;
+    }
+
+    final WaveformPyramid build(final double sampleRate) {
+      /* 末尾の半端な要約（サンプルが無いときは空の要約）を書き出す */
+      if (count > 0 || block == 0)
+        flush();
+
+      /* 以降の段は1つ下の段から求める（末尾の半端な要約も他と同じ重みで平均する） */
+      for (int k = 1; k < min.length; k++) {
+        final int prev = min[k - 1].length;
+        final int n = (int)blocks(prev, FACTOR);
+        min[k] = new float[n];
+        max[k] = new float[n];
+        meanSquare[k] = new float[n];
+        for (int b = 0; b < n; b++) {
+          final int from = b * FACTOR;
+          final int to = Math.min(prev, from + FACTOR);
+          float lo = min[k - 1][from];
+          float hi = max[k - 1][from];
+          double sum = 0.0;
+          for (int i = from; i < to; i++) {
+            lo = Math.min(lo, min[k - 1][i]);
+            hi = Math.max(hi, max[k - 1][i]);
+            sum += meanSquare[k - 1][i];
+          }
+          min[k][b] = lo;
+          max[k][b] = hi;
+          meanSquare[k][b] = (float)(sum / (to - from));
+        }
+      }
+      return new WaveformPyramid(sampleRate, length, min, max, meanSquare);
+    }
+
+  }
+
+  private static final long blocks(final long n, final int size) {
+    return Math.max(1, (n + size - 1) / size);
+  }
+
+  /**
+   * サンプリング周波数を返す．
+   *
+   * @return サンプリング周波数 [Hz]
+   */
+  public final double sampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * 要約元の波形のサンプル数を返す．
+   *
+   * @return サンプル数
+   */
+  public final long length() {
+    return length;
+  }
+
+  /**
+   * 段の数を返す．
+   *
+   * @return 段の数
+   */
+  public final int levels() {
+    return min.length;
+  }
+
+  /**
+   * 指定した段の1要約あたりのサンプル数を返す．
+   *
+   * @param level 段
+   * @return サンプル数
+   */
+  public final long blockSize(final int level) {
+    long size = BLOCK;
+    for (int k = 0; k < level; k++)
+      size *= FACTOR;
+    return size;
+  }
+
+  /**
+   * 1ピクセルあたりのサンプル数に対して，1ピクセルに1個以上の要約が入る最も粗い段を返す．
+   *
+   * @param samplesPerPixel 1ピクセルあたりのサンプル数
+   * @return 段．第0段の要約でも粗すぎるときは -1
+   */
+  public final int level(final double samplesPerPixel) {
+    int level = -1;
+    for (int k = 0; k < levels() && blockSize(k) <= samplesPerPixel; k++)
+      level = k;
+    return level;
+  }
+
+  /**
+   * サンプルの範囲 [from, to) に重なる要約をまとめる．
+   * 要約の境界は範囲の境界と一致するとは限らないため，範囲の両端の要約の分だけ広い範囲をまとめることになる．
+   *
+   * @param level 段
+   * @param from 範囲の先頭のサンプル
+   * @param to 範囲の末尾の次のサンプル
+   * @param dst 最小値・最大値・二乗平均の平方根の出力先（長さ3以上）
+   * @return 範囲に要約が無ければ false
+   */
+  public final boolean summary(final int level, final long from, final long to, final double[] dst) {
+    final long size = blockSize(level);
+    final int first = (int)Math.max(0, from / size);
+    final int last = (int)Math.min(min[level].length, (to + size - 1) / size);
+    if (first >= last)
+      return false;
+    float lo = min[level][first];
+    float hi = max[level][first];
+    double sum = 0.0;
+    for (int b = first; b < last; b++) {
+      lo = Math.min(lo, min[level][b]);
+      hi = Math.max(hi, max[level][b]);
+      sum += meanSquare[level][b];
+    }
+    dst[0] = lo;
+    dst[1] = hi;
+    dst[2] = Math.sqrt(sum / (last - first));
+    return true;
+  }
+
+  /**
+   * WAVファイルの要約を保存するファイルを返す．
+   *
+   * @param wavFile WAVファイル
+   * @return 要約のファイル
+   */
+  public static final File sidecar(final File wavFile) {
+    return new File(wavFile.getPath() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * 要約をファイルに保存する．WAVファイルの大きさと更新時刻を併せて記録し，読み込み時の照合に用いる．
+   * 一時ファイルに書き込んでから置き換えるため，書き込み途中のファイルが読まれることはない．
+   *
+   * @param file 保存先
+   * @param wavFile 要約元のWAVファイル
+   * @throws IOException 入出力例外が発生した場合
+   */
+  public final void save(final File file, final File wavFile) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(wavFile.length());
+        out.writeLong(wavFile.lastModified());
+        out.writeDouble(sampleRate);
+        out.writeLong(length);
+        out.writeInt(BLOCK);
+        out.writeInt(FACTOR);
+        out.writeInt(levels());
+        for (int k = 0; k < levels(); k++) {
+          out.writeInt(min[k].length);
+          for (int b = 0; b < min[k].length; b++) {
+            out.writeFloat(min[k][b]);
+            out.writeFloat(max[k][b]);
+            out.writeFloat(meanSquare[k][b]);
+          }
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * ファイルに保存された要約を読み込む．
+   *
+   * @param file 要約のファイル
+   * @param wavFile 要約元のWAVファイル
+   * @return 要約
+   * @throws IOException 入出力例外が発生した場合，要約のファイルとして解釈できないとき，
+   *         またはWAVファイルが保存時から変わっているとき
+   */
+  public static final WaveformPyramid load(final File file, final File wavFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+           new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException("not a waveform summary file: " + file);
+      final int version = in.readInt();
+      if (version != VERSION)
+        throw new IOException("unsupported waveform summary version: " + version);
+      if (in.readLong() != wavFile.length() || in.readLong() != wavFile.lastModified())
+        throw new IOException("waveform summary is out of date: " + file);
+      final double sampleRate = in.readDouble();
+      final long length = in.readLong();
+      if (in.readInt() != BLOCK || in.readInt() != FACTOR)
+        throw new IOException("unsupported waveform summary layout: " + file);
+      final int levels = in.readInt();
+      if (levels <= 0 || levels > 64 || length < 0)
+        throw new IOException("broken waveform summary file: " + file);
+      final float[][] min = new float[levels][];
+      final float[][] max = new float[levels][];
+      final float[][] meanSquare = new float[levels][];
+      long expected = blocks(length, BLOCK);
+      for (int k = 0; k < levels; k++) {
+        final int n = in.readInt();
+        if (n != expected)
+          throw new IOException("broken waveform summary file: " + file);
+        min[k] = new float[n];
+        max[k] = new float[n];
+        meanSquare[k] = new float[n];
+        for (int b = 0; b < n; b++) {
+          min[k][b] = in.readFloat();
+          max[k][b] = in.readFloat();
+          meanSquare[k][b] = in.readFloat();
+        }
+        expected = blocks(n, FACTOR);
+      }
+      return new WaveformPyramid(sampleRate, length, min, max, meanSquare);
+    }
+  }
+
+  /**
+   * WAVファイルの横に保存された要約が使えればそれを読み込み，
+   * 使えない（ファイルが無い・壊れている・WAVファイルが変わっている）場合は作り直して保存する．
+   * 保存できなかった（書き込めない場所にある・空き容量が無い）場合も，作り直した要約を返す．
+   *
+   * @param wavFile WAVファイル
+   * @return 要約
+   * @throws IOException WAVファイルの読み込み中に入出力例外が発生した場合
+   * @throws UnsupportedAudioFileException 対応していない形式のとき
+   */
+  public static final WaveformPyramid loadOrBuild(final File wavFile)
+    throws IOException, UnsupportedAudioFileException {
+    final File file = sidecar(wavFile);
+    if (file.isFile()) {
+      try {
+        return load(file, wavFile);
+      } catch (IOException e) {
+        /* 使えないファイルは作り直して上書きする */
+      }
+    }
+    /* WAVファイルをメモリマップし，波形全体を読み込まずにブロックごとに要約する */
+    final WaveformPyramid pyramid;
+    try (MappedWavReader reader = new MappedWavReader(wavFile)) {
+      pyramid = of(reader);
+    }
+    try {
+      pyramid.save(file, wavFile);
+    } catch (IOException e) {
+      /* 保存は次回の読み込みを速くするためだけのものなので，失敗しても要約は使える */
+      if (verbose)
+        System.err.println("cannot save waveform summary: " + file + ": " + e);
+    }
+    return pyramid;
+  }
+
+}
@@ -118,7 +118,7 @@ public final class karaoke extends Application {
 
                 /* W A V ファイル読み込み */
                 final AudioInputStream stream = AudioSystem.getAudioInputStream(pianoFile);
-                final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
+                final double[] waveform = WaveformDecoder.readWaveformMonaural(stream);
                 final AudioFormat format = stream.getFormat();
                 final double sampleRate = format.getSampleRate();
                 final double nyquist = sampleRate * 0.5;
@@ -157,7 +157,7 @@ public final class karaoke extends Application {
                 builder.daemon();
                 final Player player = builder.build();
 
-                final int fftSize = 1 << Le4MusicUtils.nextPow2(player.getFrameSize());
+                final int fftSize = player.getFrameSize();
                 final int fftSize2 = (fftSize >> 1) + 1;
 
                 /* Recorderオブジェクトを生成 */
@@ -174,6 +174,8 @@ public final class karaoke extends Application {
 
                 /* データ処理スレッド player */
                 final ExecutorService executor = Executors.newSingleThreadExecutor();
+                /* データ処理スレッド recorder */
+                final ExecutorService analyzer = Executors.newSingleThreadExecutor();
 
                 /* 窓関数とFFTのサンプル数 */
 
@@ -239,14 +241,13 @@ public final class karaoke extends Application {
                 /* フレーム数 */
                 final int frames = (int) Math.round(duration / interval);
 
-                /* データ系列を作成 */
-                ObservableList<XYChart.Data<Number, Number>> data_waveform = IntStream
-                                .range(-recorder.getFrameSize(), 0).mapToDouble(i -> i / recorder.getSampleRate())
-                                .mapToObj(t -> new XYChart.Data<Number, Number>(t, 0.0))
-                                .collect(Collectors.toCollection(FXCollections::observableArrayList));
+                /* データ系列を作成（表示範囲の点だけを保持する．基本周波数は 0.02 秒ごとの点で描く） */
+                final RingChartSeries data_waveform = new RingChartSeries((int) Math.ceil(duration / 0.02) + 8,
+                                duration, 0.0);
 
                 /* データ系列に名前をつける */
-                final XYChart.Series<Number, Number> series_waveform = new XYChart.Series<>("karaoke", data_waveform);
+                final XYChart.Series<Number, Number> series_waveform = new XYChart.Series<>("karaoke",
+                                data_waveform.data());
 
                 /* 軸を作成 for player */
                 final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)",
@@ -267,14 +268,11 @@ public final class karaoke extends Application {
                                 /* upperBound = */ 800, /* tickUnit = */ Le4MusicUtils.autoTickUnit(800));
                 yAxis.setAnimated(false);
 
-                /* データ系列を作成 音量 */
-                ObservableList<XYChart.Data<Number, Number>> data_vol = IntStream.range(-recorder.getFrameSize(), 0)
-                                .mapToDouble(i -> i / recorder.getSampleRate())
-                                .mapToObj(t -> new XYChart.Data<Number, Number>(t, 0.0))
-                                .collect(Collectors.toCollection(FXCollections::observableArrayList));
+                /* データ系列を作成 音量（表示範囲のフレーム数だけ保持する） */
+                final RingChartSeries data_vol = new RingChartSeries(frames + 1, duration, 0.0);
 
                 /* データ系列に名前をつける */
-                final XYChart.Series<Number, Number> series_vol = new XYChart.Series<>(data_vol);
+                final XYChart.Series<Number, Number> series_vol = new XYChart.Series<>(data_vol.data());
 
                 /* 軸を作成 */
                 final NumberAxis xAxis_0 = new NumberAxis("Time (seconds)", -duration, 0.0,
@@ -355,7 +353,10 @@ public final class karaoke extends Application {
                 primaryStage.setScene(scene);
                 primaryStage.setTitle(getClass().getName());
                 /* ウインドウを閉じたときに他スレッドも停止させる */
-                primaryStage.setOnCloseRequest(req -> executor.shutdown());
+                primaryStage.setOnCloseRequest(req -> {
+                        executor.shutdown();
+                        analyzer.shutdown();
+                });
                 primaryStage.show();
                 Platform.setImplicitExit(true);
 
@@ -364,39 +365,26 @@ public final class karaoke extends Application {
                 yourVoice.setText(yourVoice.getText() + ", " + score);
 
                 // recorderですること:聞き取った音楽の基本周波数をゲット、ピッチをゲット、
-                recorder.addAudioFrameListener((frame, position) -> Platform.runLater(() -> {
-                        final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
-                        final double logRms = 20.0 * Math.log10(rms);
-                        final double posInSec = position / recorder.getSampleRate();
-                        // System.out.printf("Position %d (%.2f sec), RMS %f dB%n", position, posInSec,
-                        // logRms);
-                        XYChart.Data<Number, Number> datum_1 = new XYChart.Data<Number, Number>(posInSec, logRms);
-
-                        data_vol.add(datum_1); // add volume to graph
-                        final int shiftSize = (int) Math.round(shiftDuration * player.getSampleRate());
-                        final int fftSize_f0 = 1 << Le4MusicUtils.nextPow2(recorder.getFrameSize());
-                        final double[] window_f0 = MathArrays.normalizeArray(
-                                        Arrays.copyOf(Le4MusicUtils.hanning(recorder.getFrameSize()), fftSize_f0), 1.0);
-                        final Stream<Complex[]> spectrogram_f0 = Le4MusicUtils.sliding(frame, window_f0, shiftSize)
-                                        .map(f -> Le4MusicUtils.rfft(f));
-                        double[][] specLog_f0 = spectrogram_f0
-                                        .map(sp -> Arrays.stream(sp).mapToDouble(c -> c.abs()).toArray())
-                                        .toArray(n -> new double[n][]);
-                        double[] freq0 = new double[specLog_f0.length];
-                        for (int m = 0; m < specLog_f0.length; m++) {
-                                for (int k = 0; k < specLog_f0[m].length; k++) {
-                                        if (k * recorder.getSampleRate() / fftSize_f0 > 500.0) {
-                                                specLog_f0[m][k] = 0.0;
-                                        }
-                                }
-                                freq0[m] = Le4MusicUtils.argmax(specLog_f0[m]);
-                        }
-                        double min = freq0[0];
-                        for (int z = 0; z < freq0.length; z++) {
-                                if (min > freq0[z]) {
-                                        min = freq0[z];
-                                }
+                /* 解析結果（解析スレッドが書き込み，JavaFXのスレッドが読み出す） */
+                final double[] voice = new double[4]; // 時刻 [seconds]，音量 [dB]，基本周波数 [Hz]，その時刻 [seconds]
+                final boolean[] pitchUpdated = { false }; // 基本周波数の表示を更新するなら true
+                /* 表示の更新（最新の解析結果だけを反映するので，1回あたりの処理量は一定） */
+                final CoalescingUpdate voiceUpdate = new CoalescingUpdate(() -> {
+                        final double posInSec;
+                        final double logRms;
+                        final double f0;
+                        final double pitchInSec;
+                        final boolean updatePitch;
+                        synchronized (voice) {
+                                posInSec = voice[0];
+                                logRms = voice[1];
+                                f0 = voice[2];
+                                pitchInSec = voice[3];
+                                updatePitch = pitchUpdated[0];
+                                pitchUpdated[0] = false;
                         }
+                        data_vol.add(posInSec, logRms); // add volume to graph
+
                         // 軸の更新は、音楽が止まればやめるようにする
                         if (posInSec < 150) {
                                 xAxis_waveform.setLowerBound(posInSec - duration);
@@ -405,56 +393,66 @@ public final class karaoke extends Application {
                                 xAxis_0.setLowerBound(posInSec - duration);
                         }
 
-                        if (posInSec > duration) {
-                                data_waveform.remove(0, 1);
+                        if (updatePitch) {
+                                for (int m = 0; m < 8; m++) {
+                                        data_waveform.add(pitchInSec + 0.02 * m, f0);
+                                }
+                                int noteNum = (int) Math.round(Le4MusicUtils.hz2nn(f0));
+                                double score_t = Double.parseDouble(yourVoice.getText().split(",")[1]); // 現在のスコア
+                                yourVoice.setText(pitch[noteNum % 12] + ", " + score_t);
                         }
+                });
+
+                /* 基本周波数の推定器（解析スレッドでのみ使うので窓関数と作業用配列を使い回す） */
+                final LivePitchTracker pitchTracker = new LivePitchTracker(recorder.getSampleRate(),
+                                recorder.getFrameSize(), (int) Math.round(shiftDuration * player.getSampleRate()), 500.0);
+                /* 次に基本周波数を更新する位置 [samples]（フレームが間引かれても320 * 8サンプルごとに更新する） */
+                final long[] nextPitchPosition = { 0L };
+                /* 録音した音は解析スレッドで解析し，JavaFXのスレッドでは表示の更新だけを行う */
+                recorder.addAudioFrameListener(new CoalescingFrameListener(recorder.getFrameSize(), analyzer,
+                                (frame, position) -> {
+                        final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
+                        final double logRms = 20.0 * Math.log10(rms);
+                        final double posInSec = position / recorder.getSampleRate();
+                        // System.out.printf("Position %d (%.2f sec), RMS %f dB%n", position, posInSec,
+                        // logRms);
+                        double f0 = pitchTracker.f0(frame);
                         if (logRms < -90) { // 無声判定
-                                min = 0;
+                                f0 = 0;
                         }
-                        if ((position / 320) % 8 == 0) {
-                                XYChart.Data<Number, Number> datum = new XYChart.Data<Number, Number>(posInSec,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.02,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.04,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.06,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.08,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.10,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.12,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                datum = new XYChart.Data<Number, Number>(posInSec + 0.14,
-                                                min * recorder.getSampleRate() / fftSize_f0);
-                                data_waveform.add(datum);
-                                int noteNum = (int) Math.round(
-                                                Le4MusicUtils.hz2nn(min * recorder.getSampleRate() / fftSize_f0));
-                                double score_t = Double.parseDouble(yourVoice.getText().split(",")[1]); // 現在のスコア
-                                yourVoice.setText(pitch[noteNum % 12] + ", " + score_t);
+                        synchronized (voice) {
+                                voice[0] = posInSec;
+                                voice[1] = logRms;
+                                if (position >= nextPitchPosition[0]) {
+                                        voice[2] = f0;
+                                        voice[3] = posInSec;
+                                        pitchUpdated[0] = true;
+                                        nextPitchPosition[0] = (position / (320 * 8) + 1) * (320 * 8);
+                                }
                         }
-
+                        voiceUpdate.request();
                 }));
                 recorder.start();
 
+                /* スペクトログラム用のFFTと作業用配列（データ処理スレッドでのみ使うので使い回す） */
+                final RealFFT rfft = RealFFT.of(fftSize);
+                final double[] wframe = new double[fftSize];
+                final double[] re = new double[fftSize2];
+                final double[] im = new double[fftSize2];
+                final double[] specLog = new double[fftSize2];
+
                 player.addAudioFrameListener((frame, position) -> executor.execute(() ->
 
                 {
 
-                        final double[] wframe = MathArrays.ebeMultiply(frame, window);
-                        final Complex[] spectrum = Le4MusicUtils.rfft(Arrays.copyOf(wframe, fftSize));
+                        for (int k = 0; k < window.length; k++)
+                                wframe[k] = frame[k] * window[k];
+                        rfft.forward(wframe, re, im);
+                        RealFFT.logAbs(re, im, specLog);
                         final double posInSec = position / player.getSampleRate();
 
                         /* スペクトログラム描画 */
-                        chart.addSpectrum(spectrum);
+                        chart.addSpecLog(specLog);
                         // kashi
                         if (posInSec > 22 && (10 * posInSec - 220) % 106 == 0.0 && posInSec < 138) {
                                 t.setText(kashi.get((int) ((posInSec - 22) / 10.6)) + "\n"